@@ -0,0 +1,115 @@
+package com.arssh.notesmanager.bench;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.services.Mutation;
+import com.arssh.notesmanager.services.NotesManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Retagging `batch` of 10,000 notes through NotesManager: one updateNote per note versus a
+    single applyBatch. Each ends with a flush, so the time includes writing the changes to the
+    note store (the default segment store, in a temporary user.home). updateEachFlushed flushes
+    after every call, as when each call saved on its own; updateEach lets the write-behind
+    window coalesce them.
+
+    Every run swaps the notes between two tags, so each update really changes the tag index.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchUpdateBenchmark {
+    private static final int NOTES = 10_000;
+
+    @Param({"100", "1000"})
+    private int batch;
+
+    private NotesManager manager;
+    private List<Note> notes;
+    private int round;
+
+    @Setup
+    public void setUp() throws IOException {
+        // NotesManager keeps its files under user.home; give it an empty one
+        System.setProperty("user.home", Files.createTempDirectory("notes-bench").toString());
+        manager = NotesManager.getInstance();
+        manager.initialize();
+
+        List<Mutation> adds = new ArrayList<>(NOTES);
+        notes = new ArrayList<>(NOTES);
+        for (int i = 0; i < NOTES; i++) {
+            Note note = new Note("Note " + i, "Text of note " + i);
+            note.addTag("inbox");
+            adds.add(Mutation.add(note));
+            notes.add(note);
+        }
+        manager.applyBatch(adds);
+        manager.flush();
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Benchmark
+    public void updateEach() {
+        String tag = nextTag();
+        for (int i = 0; i < batch; i++) {
+            Note note = notes.get(i);
+            manager.updateNote(note.getId(), retagged(note, tag));
+        }
+        manager.flush();
+    }
+
+    @Benchmark
+    public void updateEachFlushed() {
+        String tag = nextTag();
+        for (int i = 0; i < batch; i++) {
+            Note note = notes.get(i);
+            manager.updateNote(note.getId(), retagged(note, tag));
+            manager.flush();
+        }
+    }
+
+    @Benchmark
+    public void applyBatch() {
+        String tag = nextTag();
+        List<Mutation> mutations = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            Note note = notes.get(i);
+            mutations.add(Mutation.update(note.getId(), retagged(note, tag)));
+        }
+        manager.applyBatch(mutations);
+        manager.flush();
+    }
+
+    private String nextTag() {
+        return round++ % 2 == 0 ? "archive" : "inbox";
+    }
+
+    private static Note retagged(Note note, String tag) {
+        Note edited = new Note(note.getTitle(), note.getMainText());
+        edited.addTag(tag);
+        return edited;
+    }
+}
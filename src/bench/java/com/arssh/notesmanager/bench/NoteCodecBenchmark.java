@@ -0,0 +1,147 @@
+package com.arssh.notesmanager.bench;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.persistence.LocalDateTimeAdapter;
+import com.arssh.notesmanager.persistence.NoteCodec;
+import com.arssh.notesmanager.structures.TagDictionary;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Encoding and decoding notes with NoteCodec versus the pretty-printed Gson JSON that
+    JSONPersistence writes, in notes per millisecond.
+
+    The notes are a fixed random mix: a short title, about `bodyWords` words of text, up to
+    four tags out of twenty, a reminder on half of them and a summary on a quarter. Short
+    notes show what the compact metadata saves; with longer ones the text, stored as plain
+    UTF-8 either way, makes up nearly all of the size. The encoded sizes of the whole set are
+    printed once per fork, since the on-disk size matters as much as the speed.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoteCodecBenchmark {
+    private static final int NOTES = 1000;
+    private static final String[] WORDS = {
+            "meeting", "project", "notes", "budget", "review", "call", "draft", "plan", "idea", "follow",
+            "up", "with", "the", "team", "about", "next", "week", "and", "send", "report"
+    };
+
+    @Param({"20", "300"})
+    private int bodyWords;
+
+    private List<Note> notes;
+    private NoteCodec codec;
+    private Gson gson;
+    private byte[][] records;
+    private String[] json;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        notes = new ArrayList<>(NOTES);
+        for (int i = 0; i < NOTES; i++) {
+            Note note = new Note("Note " + i + " " + words(random, 3), words(random, bodyWords / 2 + random.nextInt(bodyWords + 1)));
+            note.setId(i + 1);
+            for (int t = random.nextInt(5); t > 0; t--) {
+                note.addTag("tag" + random.nextInt(20));
+            }
+            if (random.nextBoolean()) {
+                note.setReminder(new Reminder(LocalDateTime.of(2030, 1, 1, 9, 0).plusMinutes(random.nextInt(500_000)),
+                        1 + random.nextInt(5)));
+            }
+            if (random.nextInt(4) == 0) {
+                note.setAiSummary(words(random, 30));
+            }
+            notes.add(note);
+        }
+
+        codec = new NoteCodec(new TagDictionary());
+        gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .setPrettyPrinting()
+                .create();
+
+        records = new byte[NOTES][];
+        json = new String[NOTES];
+        long codecBytes = 0;
+        long jsonBytes = 0;
+        for (int i = 0; i < NOTES; i++) {
+            records[i] = codec.encode(notes.get(i));
+            json[i] = gson.toJson(notes.get(i).copy(), Note.class);
+            codecBytes += records[i].length;
+            jsonBytes += json[i].getBytes(StandardCharsets.UTF_8).length;
+        }
+        System.out.printf("%n%d notes of ~%d words: NoteCodec %d bytes, Gson %d bytes (%.1f%%)%n",
+                NOTES, bodyWords, codecBytes, jsonBytes, 100.0 * codecBytes / jsonBytes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTES)
+    public void encodeCodec(Blackhole blackhole) {
+        for (Note note : notes) {
+            blackhole.consume(codec.encode(note));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTES)
+    public void encodeGson(Blackhole blackhole) {
+        for (Note note : notes) {
+            blackhole.consume(gson.toJson(note.copy(), Note.class).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTES)
+    public void decodeCodec(Blackhole blackhole) throws IOException {
+        for (byte[] record : records) {
+            blackhole.consume(codec.decode(ByteBuffer.wrap(record)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTES)
+    public void decodeGson(Blackhole blackhole) {
+        for (String text : json) {
+            blackhole.consume(gson.fromJson(text, Note.class));
+        }
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package com.arssh.notesmanager.bench;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.structures.NoteLL;
+import com.arssh.notesmanager.structures.ReminderPriorityQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    One reminder edit against n active reminders:
+        updateOne              ReminderPriorityQueue.update moves just that note
+        rebuildOnEdit          ReminderPriorityQueue.rebuild from the note list after every edit
+        priorityQueueRebuild   what every setReminder, removeReminder and updateNote used to do:
+                               clear a java.util.PriorityQueue and offer every note again
+
+    Each edit moves a note's reminder to a new time and priority; the notes are edited round
+    robin so no single one stays hot in cache.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReminderQueueBenchmark {
+    @Param({"10000", "100000"})
+    private int reminders;
+
+    private static final LocalDateTime START = LocalDateTime.of(2030, 1, 1, 0, 0);
+
+    // Time first (earliest first), then priority (higher first), as the old queue ordered notes
+    private static final Comparator<Note> OLD_ORDER = (n1, n2) -> {
+        int timeComparison = n1.getReminder().getTime().compareTo(n2.getReminder().getTime());
+        if (timeComparison != 0) {
+            return timeComparison;
+        }
+        return Integer.compare(n2.getReminder().getPriority(), n1.getReminder().getPriority());
+    };
+
+    private NoteLL notes;
+    private List<Note> edited;
+    private ReminderPriorityQueue queue;
+    private PriorityQueue<Note> oldQueue;
+    private Random random;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        random = new Random(42);
+        notes = new NoteLL();
+        edited = new ArrayList<>(reminders);
+        for (int i = 0; i < reminders; i++) {
+            Note note = new Note("Reminder " + i, "");
+            note.setReminder(new Reminder(randomTime(), 1 + random.nextInt(5)));
+            notes.add(note);
+            edited.add(note);
+        }
+        queue = new ReminderPriorityQueue();
+        queue.rebuild(notes);
+        oldQueue = new PriorityQueue<>(OLD_ORDER);
+    }
+
+    @Benchmark
+    public Note updateOne() {
+        Note note = editNext();
+        queue.update(note);
+        return queue.peek();
+    }
+
+    @Benchmark
+    public Note rebuildOnEdit() {
+        editNext();
+        queue.rebuild(notes);
+        return queue.peek();
+    }
+
+    @Benchmark
+    public Note priorityQueueRebuild() {
+        editNext();
+        oldQueue.clear();
+        notes.forEach(note -> {
+            if (note.getReminder() != null && note.getReminder().isActive()) {
+                oldQueue.offer(note);
+            }
+        });
+        return oldQueue.peek();
+    }
+
+    private Note editNext() {
+        Note note = edited.get(next);
+        next = (next + 1) % edited.size();
+        note.getReminder().setTime(randomTime());
+        note.getReminder().setPriority(1 + random.nextInt(5));
+        return note;
+    }
+
+    private LocalDateTime randomTime() {
+        return START.plusMinutes(random.nextInt(1_000_000));
+    }
+}
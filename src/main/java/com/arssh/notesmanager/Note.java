@@ -1,19 +1,53 @@
 package com.arssh.notesmanager;
 
+import com.arssh.notesmanager.structures.TagDictionary;
+import com.arssh.notesmanager.structures.TextArena;
+
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Note {
+    private static final int[] NO_TAGS = new int[0];
+
+    // Stable identity, assigned by NoteLL the first time the note is stored
+    private int id;
     private String title;
     private String mainText;
     private Reminder reminder;
     private String aiSummary;
+    // Tag ids in TagDictionary.global(), in the order the tags were given and without duplicates;
+    // replaced, never changed in place. Notes carry a handful of tags, so lookups scan the array.
+    private transient volatile int[] tagIds = NO_TAGS;
+    // Tags as strings, only for JSON: written from copy(), and on notes Gson reads until folded into tagIds
     private List<String> tags;
 
+    // Store the body can be read from; set when the note was loaded without it or the body was saved
+    private transient volatile NoteBodyLoader bodyLoader;
+    // True while mainText and aiSummary are only in the store
+    private transient volatile boolean bodyMissing;
+    // True when the body in memory matches the stored copy, so it may be dropped and read back later
+    private transient boolean bodySaved;
+    // Bumped on every body edit, to tell whether a save wrote the latest body
+    private transient int bodyVersion;
+
+    // When set, mainText and aiSummary live in this arena under the refs below and the fields stay null
+    private transient TextArena textArena;
+    private transient int mainTextRef;
+    private transient int aiSummaryRef;
+
     public Note(String title , String mainText){
         this.title = title;
         this.mainText = mainText;
-        this.tags = new ArrayList<>();
+    }
+
+    public int getId(){
+        return id;
+    }
+
+    public void setId(int id){
+        this.id = id;
     }
 
     public String getTitle(){
@@ -21,7 +55,15 @@ public class Note {
     }
 
     public String getMainText(){
-        return mainText;
+        while (true) {
+            ensureBodyLoaded();
+            synchronized (this) {
+                // The body may have been dropped again between the two steps
+                if (!bodyMissing) {
+                    return readMainText();
+                }
+            }
+        }
     }
 
     public void setTitle(String title){
@@ -29,7 +71,16 @@ public class Note {
     }
 
     public void setMainText(String mainText){
-        this.mainText = mainText;
+        while (true) {
+            ensureBodyLoaded();
+            synchronized (this) {
+                if (!bodyMissing) {
+                    storeMainText(mainText);
+                    bodyEdited();
+                    return;
+                }
+            }
+        }
     }
 
     public void setReminder(Reminder reminder){
@@ -41,36 +92,268 @@ public class Note {
     }
 
     public String getAiSummary() {
-        return aiSummary;
+        while (true) {
+            ensureBodyLoaded();
+            synchronized (this) {
+                if (!bodyMissing) {
+                    return readAiSummary();
+                }
+            }
+        }
     }
 
     public void setAiSummary(String aiSummary) {
-        this.aiSummary = aiSummary;
+        while (true) {
+            ensureBodyLoaded();
+            synchronized (this) {
+                if (!bodyMissing) {
+                    storeAiSummary(aiSummary);
+                    bodyEdited();
+                    return;
+                }
+            }
+        }
+    }
+
+    // The body is not in memory; `bodyLoader` will supply it on first use
+    public synchronized void setBodyLoader(NoteBodyLoader bodyLoader) {
+        this.bodyLoader = bodyLoader;
+        this.bodyMissing = bodyLoader != null;
+        this.bodySaved = bodyLoader != null;
+    }
+
+    public NoteBodyLoader getBodyLoader() {
+        return bodyLoader;
+    }
+
+    public boolean isBodyLoaded() {
+        return !bodyMissing;
     }
 
+    // Block until mainText and aiSummary are in memory
+    public void ensureBodyLoaded() {
+        NoteBodyLoader loader = bodyLoader;
+        if (loader == null) {
+            return;
+        }
+        if (bodyMissing) {
+            loader.loadBody(this);
+        } else {
+            loader.bodyAccessed(this);
+        }
+    }
+
+    // Called by the loader; ignored if the body was already filled in
+    public synchronized void fillBody(String mainText, String aiSummary) {
+        if (bodyMissing) {
+            storeBody(mainText, aiSummary);
+            bodyMissing = false;
+            bodySaved = true;
+        }
+    }
+
+    public synchronized int getBodyVersion() {
+        return bodyVersion;
+    }
+
+    // A store has written the body as of `version`; from now on it can be read back through `loader`
+    public synchronized void markBodySaved(int version, NoteBodyLoader loader) {
+        if (!bodyMissing && bodyVersion == version) {
+            bodyLoader = loader;
+            bodySaved = true;
+        }
+    }
+
+    // Drop the body from memory if the store has an up-to-date copy; returns whether it was dropped
+    public synchronized boolean evictBody() {
+        if (bodyMissing || !bodySaved || bodyLoader == null) {
+            return false;
+        }
+        storeBody(null, null);
+        bodyMissing = true;
+        return true;
+    }
+
+    // Keep the body in `arena` from now on, or back on the heap if null; a loaded body is moved over
+    public synchronized void useTextArena(TextArena arena) {
+        if (arena == textArena) {
+            return;
+        }
+        String main = readMainText();
+        String summary = readAiSummary();
+        storeBody(null, null);
+        textArena = arena;
+        if (!bodyMissing) {
+            storeBody(main, summary);
+        }
+    }
+
+    // Rough size of the body in bytes (UTF-8 when in an arena, UTF-16 on the heap), 0 while it is not in memory
+    public synchronized long getBodySize() {
+        if (bodyMissing) {
+            return 0;
+        }
+        if (textArena != null) {
+            return textArena.byteSize(mainTextRef) + textArena.byteSize(aiSummaryRef);
+        }
+        long chars = (mainText != null ? mainText.length() : 0) + (aiSummary != null ? aiSummary.length() : 0);
+        return 2 * chars;
+    }
+
+    // The note to store in this one's place for an edit: same id and fields, its own reminder and
+    // body (read in if it is only in the store). Stored notes are not changed once other threads
+    // can see them; an edit stores a new version, so older snapshots keep the note as it was.
+    public Note newVersion() {
+        Note copy = new Note(title, getMainText());
+        copy.id = id;
+        copy.setAiSummary(getAiSummary());
+        copy.tagIds = tagIds();
+        copy.reminder = reminder != null ? reminder.copy() : null;
+        return copy;
+    }
+
+    // Copy holding its own body, safe to serialize even if this note's body is dropped meanwhile
+    public Note copy() {
+        Note copy = new Note(title, getMainText());
+        copy.id = id;
+        copy.reminder = reminder;
+        copy.aiSummary = getAiSummary();
+        copy.tagIds = tagIds();
+        copy.tags = new ArrayList<>(copy.getTags());
+        return copy;
+    }
+
+    // Caller holds the lock
+    private String readMainText() {
+        return textArena != null ? textArena.get(mainTextRef) : mainText;
+    }
+
+    private String readAiSummary() {
+        return textArena != null ? textArena.get(aiSummaryRef) : aiSummary;
+    }
+
+    // Replace the body wherever it is kept, freeing the old arena copies
+    private void storeBody(String main, String summary) {
+        storeMainText(main);
+        storeAiSummary(summary);
+    }
+
+    private void storeMainText(String text) {
+        if (textArena == null) {
+            mainText = text;
+        } else {
+            textArena.free(mainTextRef);
+            mainTextRef = textArena.put(text);
+        }
+    }
+
+    private void storeAiSummary(String text) {
+        if (textArena == null) {
+            aiSummary = text;
+        } else {
+            textArena.free(aiSummaryRef);
+            aiSummaryRef = textArena.put(text);
+        }
+    }
+
+    private void bodyEdited() {
+        bodySaved = false;
+        bodyVersion++;
+    }
+
+    // Read-only view of the tags as of the call, in the order they were given
     public List<String> getTags() {
-        if (tags == null) {
-            tags = new ArrayList<>();
+        int[] ids = tagIds();
+        TagDictionary dictionary = TagDictionary.global();
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return dictionary.get(ids[index]);
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+
+    public synchronized void setTags(List<String> tags) {
+        this.tagIds = toIds(tags);
+        this.tags = null;
+    }
+
+    public synchronized void addTag(String tag) {
+        if (tag == null) {
+            return;
+        }
+        int[] ids = tagIds();
+        int id = TagDictionary.global().intern(tag);
+        if (indexOf(ids, ids.length, id) < 0) {
+            int[] added = Arrays.copyOf(ids, ids.length + 1);
+            added[ids.length] = id;
+            tagIds = added;
+        }
+    }
+
+    public synchronized void removeTag(String tag) {
+        int[] ids = tagIds();
+        int at = indexOf(ids, ids.length, TagDictionary.global().idOf(tag == null ? "" : tag));
+        if (at >= 0) {
+            int[] removed = new int[ids.length - 1];
+            System.arraycopy(ids, 0, removed, 0, at);
+            System.arraycopy(ids, at + 1, removed, at, ids.length - at - 1);
+            tagIds = removed;
         }
-        return tags;
     }
 
-    public void setTags(List<String> tags) {
-        this.tags = tags;
+    public boolean hasTag(String tag) {
+        int id = TagDictionary.global().idOf(tag == null ? "" : tag);
+        int[] ids = tagIds();
+        return id >= 0 && indexOf(ids, ids.length, id) >= 0;
+    }
+
+    private int[] tagIds() {
+        int[] ids = tagIds;
+        if (ids != null) {
+            return ids;
+        }
+        // Gson skips field initializers, so a note it read only has the strings
+        synchronized (this) {
+            if (tagIds == null) {
+                tagIds = toIds(tags);
+                tags = null;
+            }
+            return tagIds;
+        }
     }
 
-    public void addTag(String tag) {
-        if (this.tags == null) {
-            this.tags = new ArrayList<>();
+    private static int[] toIds(List<String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return NO_TAGS;
         }
-        if (!this.tags.contains(tag)) {
-            this.tags.add(tag);
+        TagDictionary dictionary = TagDictionary.global();
+        int[] ids = new int[tags.size()];
+        int count = 0;
+        for (String tag : tags) {
+            if (tag != null) {
+                int id = dictionary.intern(tag);
+                // Keep the first of any repeats
+                if (indexOf(ids, count, id) < 0) {
+                    ids[count++] = id;
+                }
+            }
         }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
     }
 
-    public void removeTag(String tag) {
-        if (this.tags != null) {
-            this.tags.remove(tag);
+    // Position of `id` among the first `length` ids, or -1
+    private static int indexOf(int[] ids, int length, int id) {
+        for (int i = 0; i < length; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
         }
+        return -1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+package com.arssh.notesmanager;
+
+// Supplies a note's mainText and aiSummary when the note was loaded without them
+public interface NoteBodyLoader {
+    // Must call note.fillBody(...) before returning, or throw UncheckedIOException if the body can't be
+    // read. The note is then left without its body, so no store writes an empty one back in its place.
+    void loadBody(Note note);
+
+    // Called when a body already in memory is read or written, so caches can track use
+    default void bodyAccessed(Note note) {
+    }
+}
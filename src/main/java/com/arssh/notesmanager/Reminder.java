@@ -58,4 +58,11 @@ public class Reminder {
         this.priority = priority;
     }
 
+    // Same time, priority and state, for a note version of its own
+    public Reminder copy(){
+        Reminder copy = new Reminder(time, priority);
+        copy.active = active;
+        return copy;
+    }
+
 }
@@ -2,7 +2,9 @@ package com.arssh.notesmanager.controllers;
 
 import com.arssh.notesmanager.Note;
 import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.services.ImportProgress;
 import com.arssh.notesmanager.services.NotesManager;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -12,14 +14,18 @@ import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -32,6 +38,8 @@ public class MainController {
     @FXML private Button newNoteButton;
     @FXML private Button editButton;
     @FXML private Button deleteButton;
+    @FXML private Button importButton;
+    @FXML private Label importStatusLabel;
 
     private ObservableList<Note> notesList;
     private ObservableList<String> remindersList;
@@ -56,7 +64,12 @@ public class MainController {
                 } else {
                     // Format: Bold title, 2-line content preview, clock icon if has reminder
                     String title = note.getTitle();
-                    String content = note.getMainText();
+                    String content;
+                    try {
+                        content = note.getMainText();
+                    } catch (UncheckedIOException e) {
+                        content = "(The text of this note could not be read)";
+                    }
                     String preview = content.length() > 100 ? content.substring(0, 100) + "..." : content;
 
                     String hasReminder = (note.getReminder() != null && note.getReminder().isActive()) ? " \uD83D\uDD54" : "";
@@ -89,11 +102,24 @@ public class MainController {
             deleteButton.setDisable(!hasSelection);
         });
 
+        // Pop up reminders when they come due
+        NotesManager.getInstance().addReminderListener(note -> Platform.runLater(() -> showReminder(note)));
+
         // Load notes
         refreshNotesList();
         refreshRemindersList();
     }
 
+    private void showReminder(Note note) {
+        refreshRemindersList();
+
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Reminder");
+        alert.setHeaderText(note.getTitle());
+        alert.setContentText(formatReminder(note));
+        alert.show();
+    }
+
     @FXML
     private void onNewNote() {
         openNoteEditor(null);
@@ -118,13 +144,48 @@ public class MainController {
 
             Optional<ButtonType> result = alert.showAndWait();
             if (result.isPresent() && result.get() == ButtonType.OK) {
-                NotesManager.getInstance().deleteNote(selectedNote.getTitle());
+                NotesManager.getInstance().deleteNote(selectedNote.getId());
                 refreshNotesList();
                 refreshRemindersList();
             }
         }
     }
 
+    @FXML
+    private void onImportFolder() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Import Markdown or Text Notes");
+        File directory = chooser.showDialog(notesListView.getScene().getWindow());
+        if (directory == null) {
+            return;
+        }
+
+        importButton.setDisable(true);
+        importStatusLabel.setText("Importing...");
+
+        // Run the import in a background thread, showing progress as it goes
+        new Thread(() -> {
+            try {
+                ImportProgress result = NotesManager.getInstance().importDirectory(directory.toPath(),
+                        progress -> Platform.runLater(() -> importStatusLabel.setText(progress.toString())));
+                Platform.runLater(() -> {
+                    importStatusLabel.setText(result.toString());
+                    importButton.setDisable(false);
+                    refreshNotesList();
+                    refreshRemindersList();
+                });
+            } catch (IOException | RuntimeException e) {
+                Platform.runLater(() -> {
+                    importStatusLabel.setText("");
+                    importButton.setDisable(false);
+                    refreshNotesList();
+                    refreshRemindersList();
+                    showError("Import failed", e.getMessage());
+                });
+            }
+        }, "notes-import").start();
+    }
+
     public void refreshNotesList() {
         notesList.clear();
         List<Note> notes = NotesManager.getInstance().getAllNotes();
@@ -215,6 +276,8 @@ public class MainController {
             }
         } catch (IOException e) {
             showError("Could not open note editor", e.getMessage());
+        } catch (UncheckedIOException e) {
+            showError("Could not read note", e.getMessage());
         }
     }
 
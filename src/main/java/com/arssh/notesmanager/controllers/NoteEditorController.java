@@ -137,7 +137,7 @@ public class NoteEditorController {
             NotesManager.getInstance().addNote(newNote);
         } else {
             // Updating existing note
-            NotesManager.getInstance().updateNote(editingNote.getTitle(), newNote);
+            NotesManager.getInstance().updateNote(editingNote.getId(), newNote);
         }
 
         saved = true;
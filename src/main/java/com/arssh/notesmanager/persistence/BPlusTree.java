@@ -0,0 +1,474 @@
+package com.arssh.notesmanager.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    B+tree over the pages of a BufferPool, keyed by a pair of longs (compared k1 first, then k2).
+
+    Leaves hold the values and are chained left to right for range scans; inner nodes hold only
+    separator keys and child page numbers. A node is one page. It is decoded into a Node object,
+    changed and written back, so a page stays pinned only while it is copied.
+
+    Values larger than an eighth of a page go to a chain of overflow pages and the leaf keeps a
+    pointer, so every leaf holds at least a handful of entries.
+
+    Removing a key never merges nodes: a leaf may become empty and stay in the chain. Notes are
+    rarely deleted in bulk, so the space is cheaper to keep than the rebalancing code.
+
+    Page layouts (big-endian):
+        leaf      1 | count | next leaf | (k1, k2, flag, inline length + bytes | overflow page + length)*
+        inner     2 | count | child0 | (k1, k2, child)*
+        overflow  next page | length | bytes
+*/
+final class BPlusTree {
+    private static final byte LEAF = 1;
+    private static final byte INNER = 2;
+    private static final byte INLINE = 0;
+    private static final byte OVERFLOW = 1;
+    // type(1) count(4) next or child0(4)
+    private static final int NODE_HEADER = 9;
+    private static final int OVERFLOW_HEADER = 8;
+
+    interface PageAllocator {
+        // A page number the tree may use; its contents are overwritten
+        int allocate() throws IOException;
+        void free(int pageNo) throws IOException;
+    }
+
+    interface Visitor {
+        // Return false to stop the scan
+        boolean visit(long k1, long k2, byte[] value) throws IOException;
+    }
+
+    private final BufferPool pool;
+    private final PageAllocator allocator;
+    private final int maxInline;
+    // 0 while the tree is empty
+    private int root;
+
+    BPlusTree(BufferPool pool, PageAllocator allocator, int root) {
+        this.pool = pool;
+        this.allocator = allocator;
+        this.maxInline = pool.getPageSize() / 8;
+        this.root = root;
+    }
+
+    int getRoot() {
+        return root;
+    }
+
+    byte[] get(long k1, long k2) throws IOException {
+        if (root == 0) {
+            return null;
+        }
+        Node node = read(root);
+        while (!node.leaf) {
+            node = read(node.children.get(childIndex(node, k1, k2)));
+        }
+        int i = find(node, k1, k2);
+        return i >= 0 ? value(node.cells.get(i)) : null;
+    }
+
+    // Insert or replace
+    void put(long k1, long k2, byte[] value) throws IOException {
+        Cell cell = store(k1, k2, value);
+        if (root == 0) {
+            Node leaf = Node.leaf();
+            leaf.cells.add(cell);
+            root = allocator.allocate();
+            write(root, leaf);
+            return;
+        }
+
+        Split split = insert(root, cell);
+        if (split != null) {
+            Node newRoot = Node.inner();
+            newRoot.children.add(root);
+            newRoot.keys.add(split.key);
+            newRoot.children.add(split.right);
+            root = allocator.allocate();
+            write(root, newRoot);
+        }
+    }
+
+    boolean remove(long k1, long k2) throws IOException {
+        if (root == 0) {
+            return false;
+        }
+        int pageNo = root;
+        Node node = read(pageNo);
+        while (!node.leaf) {
+            pageNo = node.children.get(childIndex(node, k1, k2));
+            node = read(pageNo);
+        }
+        int i = find(node, k1, k2);
+        if (i < 0) {
+            return false;
+        }
+        freeOverflow(node.cells.remove(i));
+        write(pageNo, node);
+        return true;
+    }
+
+    // Visit entries in key order, starting at the first key >= (k1, k2)
+    void scan(long k1, long k2, Visitor visitor) throws IOException {
+        if (root == 0) {
+            return;
+        }
+        Node node = read(root);
+        while (!node.leaf) {
+            node = read(node.children.get(childIndex(node, k1, k2)));
+        }
+        while (true) {
+            for (Cell cell : node.cells) {
+                if (compare(cell.k1, cell.k2, k1, k2) >= 0 && !visitor.visit(cell.k1, cell.k2, value(cell))) {
+                    return;
+                }
+            }
+            if (node.next == 0) {
+                return;
+            }
+            node = read(node.next);
+        }
+    }
+
+    // Hand every page of the tree back to the allocator
+    void clear() throws IOException {
+        if (root != 0) {
+            freeSubtree(root);
+            root = 0;
+        }
+    }
+
+    private Split insert(int pageNo, Cell cell) throws IOException {
+        Node node = read(pageNo);
+        if (node.leaf) {
+            int i = find(node, cell.k1, cell.k2);
+            if (i >= 0) {
+                freeOverflow(node.cells.get(i));
+                node.cells.set(i, cell);
+            } else {
+                node.cells.add(-i - 1, cell);
+            }
+            return writeOrSplit(pageNo, node);
+        }
+
+        int c = childIndex(node, cell.k1, cell.k2);
+        Split split = insert(node.children.get(c), cell);
+        if (split == null) {
+            return null;
+        }
+        node.keys.add(c, split.key);
+        node.children.add(c + 1, split.right);
+        return writeOrSplit(pageNo, node);
+    }
+
+    private Split writeOrSplit(int pageNo, Node node) throws IOException {
+        if (node.size() <= pool.getPageSize()) {
+            write(pageNo, node);
+            return null;
+        }
+
+        Node right;
+        long[] separator;
+        if (node.leaf) {
+            // Split by bytes, so both halves fit whatever the value sizes
+            int half = node.size() / 2;
+            int bytes = NODE_HEADER;
+            int at = 0;
+            while (at < node.cells.size() - 1 && bytes + node.cells.get(at).size() <= half) {
+                bytes += node.cells.get(at).size();
+                at++;
+            }
+            at = Math.max(at, 1);
+            right = Node.leaf();
+            right.cells.addAll(node.cells.subList(at, node.cells.size()));
+            node.cells.subList(at, node.cells.size()).clear();
+            right.next = node.next;
+            separator = new long[] { right.cells.get(0).k1, right.cells.get(0).k2 };
+        } else {
+            int middle = node.keys.size() / 2;
+            right = Node.inner();
+            separator = node.keys.get(middle);
+            right.keys.addAll(node.keys.subList(middle + 1, node.keys.size()));
+            right.children.addAll(node.children.subList(middle + 1, node.children.size()));
+            node.keys.subList(middle, node.keys.size()).clear();
+            node.children.subList(middle + 1, node.children.size()).clear();
+        }
+
+        int rightPage = allocator.allocate();
+        if (node.leaf) {
+            node.next = rightPage;
+        }
+        write(rightPage, right);
+        write(pageNo, node);
+        return new Split(separator, rightPage);
+    }
+
+    private void freeSubtree(int pageNo) throws IOException {
+        Node node = read(pageNo);
+        if (node.leaf) {
+            for (Cell cell : node.cells) {
+                freeOverflow(cell);
+            }
+        } else {
+            for (int child : node.children) {
+                freeSubtree(child);
+            }
+        }
+        allocator.free(pageNo);
+    }
+
+    // Child that may hold the key: keys >= separator i live right of it
+    private static int childIndex(Node node, long k1, long k2) {
+        int low = 0;
+        int high = node.keys.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long[] key = node.keys.get(mid);
+            if (compare(key[0], key[1], k1, k2) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // Index of the key in a leaf, or -(insertion point) - 1
+    private static int find(Node leaf, long k1, long k2) {
+        int low = 0;
+        int high = leaf.cells.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Cell cell = leaf.cells.get(mid);
+            int cmp = compare(cell.k1, cell.k2, k1, k2);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int compare(long a1, long a2, long b1, long b2) {
+        int cmp = Long.compare(a1, b1);
+        return cmp != 0 ? cmp : Long.compare(a2, b2);
+    }
+
+    // Cell for a value, moving large values to overflow pages
+    private Cell store(long k1, long k2, byte[] value) throws IOException {
+        Cell cell = new Cell(k1, k2);
+        cell.length = value.length;
+        if (value.length <= maxInline) {
+            cell.inline = value;
+            return cell;
+        }
+
+        int chunk = pool.getPageSize() - OVERFLOW_HEADER;
+        int pages = (value.length + chunk - 1) / chunk;
+        int[] pageNos = new int[pages];
+        for (int p = 0; p < pages; p++) {
+            pageNos[p] = allocator.allocate();
+        }
+        for (int p = 0; p < pages; p++) {
+            int from = p * chunk;
+            int length = Math.min(chunk, value.length - from);
+            ByteBuffer page = pool.pin(pageNos[p]);
+            page.putInt(0, p + 1 < pages ? pageNos[p + 1] : 0);
+            page.putInt(4, length);
+            page.put(OVERFLOW_HEADER, value, from, length);
+            pool.unpin(pageNos[p], true);
+        }
+        cell.overflowPage = pageNos[0];
+        return cell;
+    }
+
+    private byte[] value(Cell cell) throws IOException {
+        if (cell.inline != null) {
+            return cell.inline;
+        }
+        byte[] value = new byte[cell.length];
+        int offset = 0;
+        int pageNo = cell.overflowPage;
+        while (pageNo != 0 && offset < value.length) {
+            ByteBuffer page = pool.pin(pageNo);
+            int next = page.getInt(0);
+            int length = Math.min(page.getInt(4), value.length - offset);
+            page.get(OVERFLOW_HEADER, value, offset, length);
+            pool.unpin(pageNo, false);
+            offset += length;
+            pageNo = next;
+        }
+        if (offset != value.length) {
+            throw new IOException("Overflow chain at page " + cell.overflowPage + " is truncated");
+        }
+        return value;
+    }
+
+    private void freeOverflow(Cell cell) throws IOException {
+        int pageNo = cell.overflowPage;
+        while (pageNo != 0) {
+            ByteBuffer page = pool.pin(pageNo);
+            int next = page.getInt(0);
+            pool.unpin(pageNo, false);
+            allocator.free(pageNo);
+            pageNo = next;
+        }
+    }
+
+    private Node read(int pageNo) throws IOException {
+        ByteBuffer page = pool.pin(pageNo);
+        try {
+            byte type = page.get(0);
+            int count = page.getInt(1);
+            int pos = 5;
+            if (type == LEAF) {
+                Node node = Node.leaf();
+                node.next = page.getInt(pos);
+                pos += 4;
+                for (int i = 0; i < count; i++) {
+                    Cell cell = new Cell(page.getLong(pos), page.getLong(pos + 8));
+                    byte flag = page.get(pos + 16);
+                    pos += 17;
+                    if (flag == INLINE) {
+                        cell.length = page.getInt(pos);
+                        cell.inline = new byte[cell.length];
+                        page.get(pos + 4, cell.inline);
+                        pos += 4 + cell.length;
+                    } else {
+                        cell.overflowPage = page.getInt(pos);
+                        cell.length = page.getInt(pos + 4);
+                        pos += 8;
+                    }
+                    node.cells.add(cell);
+                }
+                return node;
+            }
+            if (type == INNER) {
+                Node node = Node.inner();
+                node.children.add(page.getInt(pos));
+                pos += 4;
+                for (int i = 0; i < count; i++) {
+                    node.keys.add(new long[] { page.getLong(pos), page.getLong(pos + 8) });
+                    node.children.add(page.getInt(pos + 16));
+                    pos += 20;
+                }
+                return node;
+            }
+            throw new IOException("Page " + pageNo + " is not a tree node");
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Tree page " + pageNo + " is corrupt", e);
+        } finally {
+            pool.unpin(pageNo, false);
+        }
+    }
+
+    private void write(int pageNo, Node node) throws IOException {
+        ByteBuffer page = pool.pin(pageNo);
+        try {
+            int pos = 5;
+            if (node.leaf) {
+                page.put(0, LEAF);
+                page.putInt(1, node.cells.size());
+                page.putInt(pos, node.next);
+                pos += 4;
+                for (Cell cell : node.cells) {
+                    page.putLong(pos, cell.k1);
+                    page.putLong(pos + 8, cell.k2);
+                    pos += 16;
+                    if (cell.inline != null) {
+                        page.put(pos, INLINE);
+                        page.putInt(pos + 1, cell.length);
+                        page.put(pos + 5, cell.inline);
+                        pos += 5 + cell.length;
+                    } else {
+                        page.put(pos, OVERFLOW);
+                        page.putInt(pos + 1, cell.overflowPage);
+                        page.putInt(pos + 5, cell.length);
+                        pos += 9;
+                    }
+                }
+            } else {
+                page.put(0, INNER);
+                page.putInt(1, node.keys.size());
+                page.putInt(pos, node.children.get(0));
+                pos += 4;
+                for (int i = 0; i < node.keys.size(); i++) {
+                    long[] key = node.keys.get(i);
+                    page.putLong(pos, key[0]);
+                    page.putLong(pos + 8, key[1]);
+                    page.putInt(pos + 16, node.children.get(i + 1));
+                    pos += 20;
+                }
+            }
+        } finally {
+            pool.unpin(pageNo, true);
+        }
+    }
+
+    private static final class Cell {
+        final long k1;
+        final long k2;
+        int length;
+        // Either the value itself or the first overflow page
+        byte[] inline;
+        int overflowPage;
+
+        Cell(long k1, long k2) {
+            this.k1 = k1;
+            this.k2 = k2;
+        }
+
+        int size() {
+            return 17 + (inline != null ? 4 + length : 8);
+        }
+    }
+
+    private static final class Node {
+        final boolean leaf;
+        final List<Cell> cells = new ArrayList<>();
+        final List<long[]> keys = new ArrayList<>();
+        final List<Integer> children = new ArrayList<>();
+        int next;
+
+        private Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        static Node leaf() {
+            return new Node(true);
+        }
+
+        static Node inner() {
+            return new Node(false);
+        }
+
+        int size() {
+            if (!leaf) {
+                return NODE_HEADER + keys.size() * 20;
+            }
+            int bytes = NODE_HEADER;
+            for (Cell cell : cells) {
+                bytes += cell.size();
+            }
+            return bytes;
+        }
+    }
+
+    private static final class Split {
+        final long[] key;
+        final int right;
+
+        Split(long[] key, int right) {
+            this.key = key;
+            this.right = right;
+        }
+    }
+}
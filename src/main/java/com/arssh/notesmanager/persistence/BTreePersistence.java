@@ -0,0 +1,461 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.NoteBodyLoader;
+import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.structures.NoteLL;
+import com.arssh.notesmanager.structures.TagDictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Note store in a single page file holding B+trees, read through a bounded buffer pool.
+
+    Trees, all rooted in the header page:
+        notes      - note id -> list position + NoteCodec record
+        reminders  - (reminder time, note id) -> nothing, for active reminders with a time
+        tags       - tag id -> tag text, the store's tag dictionary
+    Freed pages are kept in a linked free list and reused before the file grows.
+
+    Only the buffer pool's frames are cached, so reminder range scans and paging through notes by
+    id (reminderIdsBetween, noteIdsAfter) use the same memory however many notes there are;
+    NotesManager answers getRemindersBetween and getNotesPage with them. loadNotes still builds
+    the full list the app works on, but leaves every note's text on disk until it is opened, so
+    heap use grows with the number of notes (their metadata), not with their text. Lookups by id
+    or title are answered from that list, not from the notes tree.
+
+    Every saveChanges is one transaction of the buffer pool; see BufferPool for the journal.
+*/
+public class BTreePersistence implements PersistenceService {
+    public static final int PAGE_SIZE = 4096;
+    public static final long DEFAULT_BUFFER_POOL_BYTES = 8L * 1024 * 1024;
+
+    private static final int MAGIC = 0x4E4D4254;
+    private static final int FORMAT_VERSION = 1;
+    private static final byte[] EMPTY = new byte[0];
+
+    // Header page offsets
+    private static final int H_MAGIC = 0;
+    private static final int H_FORMAT = 4;
+    private static final int H_PAGE_SIZE = 8;
+    private static final int H_NOTES_ROOT = 12;
+    private static final int H_REMINDERS_ROOT = 16;
+    private static final int H_TAGS_ROOT = 20;
+    private static final int H_FREE_HEAD = 24;
+    private static final int H_NOTE_COUNT = 28;
+    private static final int H_MAX_ORDER = 32;
+    private static final int H_VERSION = 40;
+
+    private final File file;
+    private final long bufferPoolBytes;
+
+    // Guards everything below
+    private final Object lock = new Object();
+    private final TagDictionary tags = new TagDictionary();
+    private final NoteCodec codec = new NoteCodec(tags);
+    private BufferPool pool;
+    private BPlusTree notesTree;
+    private BPlusTree remindersTree;
+    private BPlusTree tagsTree;
+    private int freeHead;
+    private int noteCount;
+    private long maxOrder;
+    private long version;
+    private boolean closed;
+
+    public BTreePersistence() {
+        this(System.getProperty("user.home") + File.separator + ".notesmanager" + File.separator + "notes.btree");
+    }
+
+    public BTreePersistence(String file) {
+        this(file, DEFAULT_BUFFER_POOL_BYTES);
+    }
+
+    public BTreePersistence(String file, long bufferPoolBytes) {
+        this.file = new File(file);
+        this.bufferPoolBytes = bufferPoolBytes;
+    }
+
+    @Override
+    public void saveChanges(NoteLL notes, ChangeSet changes) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            try {
+                for (int id : changes.getDeletes()) {
+                    removeNote(id);
+                }
+                for (Note note : changes.getUpserts()) {
+                    putNote(note, -1);
+                }
+                commit();
+            } catch (IOException | RuntimeException e) {
+                rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Replace the whole store with `notes`
+    @Override
+    public void saveNotes(NoteLL notes) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            List<Note> all = new ArrayList<>(notes.size());
+            notes.forEach(all::add);
+            try {
+                // Encode first: bodies not in memory are read from the trees about to be cleared
+                List<byte[]> records = new ArrayList<>(all.size());
+                for (Note note : all) {
+                    records.add(encode(note));
+                }
+
+                notesTree.clear();
+                remindersTree.clear();
+                noteCount = 0;
+                maxOrder = 0;
+                long order = all.size();
+                for (int i = 0; i < all.size(); i++) {
+                    putRecord(all.get(i), records.get(i), order--);
+                }
+                maxOrder = all.size();
+                commit();
+            } catch (IOException | RuntimeException e) {
+                rollback();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public NoteLL loadNotes() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            List<long[]> orders = new ArrayList<>(noteCount);
+            List<Note> loaded = new ArrayList<>(noteCount);
+            notesTree.scan(Long.MIN_VALUE, Long.MIN_VALUE, (id, unused, value) -> {
+                orders.add(new long[] { orderOf(value), loaded.size() });
+                loaded.add(decodeMetadata(value));
+                return true;
+            });
+
+            orders.sort((a, b) -> Long.compare(b[0], a[0]));
+            List<Note> ordered = new ArrayList<>(orders.size());
+            for (long[] entry : orders) {
+                ordered.add(loaded.get((int) entry[1]));
+            }
+            NoteLL notes = new NoteLL();
+            notes.addAllLast(ordered);
+            return notes;
+        }
+    }
+
+    // Ids of up to `limit` notes with an active reminder in [from, to], earliest first
+    public List<Integer> reminderIdsBetween(LocalDateTime from, LocalDateTime to, int limit) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            long toSecond = to.toEpochSecond(ZoneOffset.UTC);
+            List<Integer> ids = new ArrayList<>();
+            remindersTree.scan(from.toEpochSecond(ZoneOffset.UTC), (long) from.getNano() << 32, (second, rest, value) -> {
+                if (second > toSecond || (second == toSecond && (rest >>> 32) > to.getNano()) || ids.size() >= limit) {
+                    return false;
+                }
+                ids.add((int) rest);
+                return true;
+            });
+            return ids;
+        }
+    }
+
+    // Up to `limit` note ids above `afterId`, in order; pass the last id to get the next page
+    public List<Integer> noteIdsAfter(int afterId, int limit) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            List<Integer> page = new ArrayList<>();
+            if (limit <= 0) {
+                return page;
+            }
+            notesTree.scan((long) afterId + 1, Long.MIN_VALUE, (id, unused, value) -> {
+                page.add((int) id);
+                return page.size() < limit;
+            });
+            return page;
+        }
+    }
+
+    @Override
+    public NoteBodyLoader getBodyLoader() {
+        return this::loadBody;
+    }
+
+    @Override
+    public boolean dataFileExists() {
+        return file.exists() && file.length() > 0;
+    }
+
+    // Counts committed transactions
+    @Override
+    public long getStoreVersion() {
+        synchronized (lock) {
+            if (!closed) {
+                try {
+                    ensureOpen();
+                } catch (IOException e) {
+                    return 0;
+                }
+            }
+            return version;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (pool != null) {
+                pool.close();
+                pool = null;
+            }
+            closed = true;
+        }
+    }
+
+    public long getBufferPoolHits() {
+        synchronized (lock) {
+            return pool == null ? 0 : pool.getHits();
+        }
+    }
+
+    public long getBufferPoolMisses() {
+        synchronized (lock) {
+            return pool == null ? 0 : pool.getMisses();
+        }
+    }
+
+    public long getBufferPoolEvictions() {
+        synchronized (lock) {
+            return pool == null ? 0 : pool.getEvictions();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (pool != null) {
+            return;
+        }
+        if (closed) {
+            throw new IOException("Note store is closed");
+        }
+
+        File parentDir = file.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        pool = new BufferPool(file, PAGE_SIZE, bufferPoolBytes);
+        if (pool.getPageCount() == 0) {
+            pool.unpin(pool.extend(), true);
+            freeHead = 0;
+            noteCount = 0;
+            maxOrder = 0;
+            version = 1;
+            notesTree = new BPlusTree(pool, allocator, 0);
+            remindersTree = new BPlusTree(pool, allocator, 0);
+            tagsTree = new BPlusTree(pool, allocator, 0);
+            writeHeader();
+            pool.commit();
+        } else {
+            readHeader();
+        }
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = pool.pin(0);
+        try {
+            if (header.getInt(H_MAGIC) != MAGIC || header.getInt(H_FORMAT) != FORMAT_VERSION
+                    || header.getInt(H_PAGE_SIZE) != PAGE_SIZE) {
+                throw new IOException("Not a note store: " + file);
+            }
+            notesTree = new BPlusTree(pool, allocator, header.getInt(H_NOTES_ROOT));
+            remindersTree = new BPlusTree(pool, allocator, header.getInt(H_REMINDERS_ROOT));
+            tagsTree = new BPlusTree(pool, allocator, header.getInt(H_TAGS_ROOT));
+            freeHead = header.getInt(H_FREE_HEAD);
+            noteCount = header.getInt(H_NOTE_COUNT);
+            maxOrder = header.getLong(H_MAX_ORDER);
+            version = header.getLong(H_VERSION);
+        } finally {
+            pool.unpin(0, false);
+        }
+
+        tags.clear();
+        tagsTree.scan(Long.MIN_VALUE, Long.MIN_VALUE, (id, unused, value) -> {
+            tags.put((int) id, new String(value, StandardCharsets.UTF_8));
+            return true;
+        });
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = pool.pin(0);
+        header.putInt(H_MAGIC, MAGIC);
+        header.putInt(H_FORMAT, FORMAT_VERSION);
+        header.putInt(H_PAGE_SIZE, PAGE_SIZE);
+        header.putInt(H_NOTES_ROOT, notesTree.getRoot());
+        header.putInt(H_REMINDERS_ROOT, remindersTree.getRoot());
+        header.putInt(H_TAGS_ROOT, tagsTree.getRoot());
+        header.putInt(H_FREE_HEAD, freeHead);
+        header.putInt(H_NOTE_COUNT, noteCount);
+        header.putLong(H_MAX_ORDER, maxOrder);
+        header.putLong(H_VERSION, version);
+        pool.unpin(0, true);
+    }
+
+    private void commit() throws IOException {
+        version++;
+        writeHeader();
+        pool.commit();
+    }
+
+    // Undo a failed transaction, on disk and in the fields mirroring the header
+    private void rollback() {
+        try {
+            pool.rollback();
+            readHeader();
+        } catch (IOException e) {
+            System.err.println("Error rolling back note store: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Write a note, keeping its list position unless `order` is given
+    private void putNote(Note note, long order) throws IOException {
+        putRecord(note, encode(note), order);
+    }
+
+    // Tags first seen in this note are added to the tag tree
+    private byte[] encode(Note note) throws IOException {
+        int knownTags = tags.size();
+        byte[] record = codec.encode(note);
+        for (int tagId = knownTags; tagId < tags.size(); tagId++) {
+            tagsTree.put(tagId, 0, tags.get(tagId).getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+
+    private void putRecord(Note note, byte[] record, long order) throws IOException {
+        int id = note.getId();
+        byte[] old = notesTree.get(id, 0);
+        if (old != null) {
+            removeReminderKey(decodeMetadata(old));
+            if (order < 0) {
+                order = orderOf(old);
+            }
+        } else {
+            noteCount++;
+            if (order < 0) {
+                order = ++maxOrder;
+            }
+        }
+
+        ByteBuffer value = ByteBuffer.allocate(8 + record.length);
+        value.putLong(order).put(record);
+        notesTree.put(id, 0, value.array());
+
+        long[] key = reminderKey(note);
+        if (key != null) {
+            remindersTree.put(key[0], key[1], EMPTY);
+        }
+    }
+
+    private void removeNote(int id) throws IOException {
+        byte[] old = notesTree.get(id, 0);
+        if (old == null) {
+            return;
+        }
+        removeReminderKey(decodeMetadata(old));
+        notesTree.remove(id, 0);
+        noteCount--;
+    }
+
+    private void removeReminderKey(Note stored) throws IOException {
+        long[] key = reminderKey(stored);
+        if (key != null) {
+            remindersTree.remove(key[0], key[1]);
+        }
+    }
+
+    // (epoch second, nanos << 32 | id), or null if the note has no active, timed reminder
+    private static long[] reminderKey(Note note) {
+        Reminder reminder = note.getReminder();
+        if (reminder == null || !reminder.isActive() || reminder.getTime() == null) {
+            return null;
+        }
+        LocalDateTime time = reminder.getTime();
+        return new long[] {
+                time.toEpochSecond(ZoneOffset.UTC),
+                ((long) time.getNano() << 32) | (note.getId() & 0xFFFFFFFFL)
+        };
+    }
+
+    private Note decodeMetadata(byte[] value) throws IOException {
+        Note note = codec.decodeMetadata(record(value));
+        note.setBodyLoader(this::loadBody);
+        return note;
+    }
+
+    // Leaves the note without a body if it can't be read, so an empty one is never saved over it
+    private void loadBody(Note note) {
+        synchronized (lock) {
+            byte[] value;
+            try {
+                ensureOpen();
+                value = notesTree.get(note.getId(), 0);
+                if (value != null) {
+                    codec.decodeBody(record(value), note);
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading note text: " + e.getMessage());
+                throw new UncheckedIOException(e);
+            }
+            if (value == null) {
+                throw new UncheckedIOException(new IOException("Note " + note.getId() + " is no longer in the store"));
+            }
+        }
+    }
+
+    private static long orderOf(byte[] value) {
+        return ByteBuffer.wrap(value).getLong(0);
+    }
+
+    private static ByteBuffer record(byte[] value) {
+        return ByteBuffer.wrap(value, 8, value.length - 8).slice();
+    }
+
+    // Free pages form a list threaded through their first four bytes
+    private final BPlusTree.PageAllocator allocator = new BPlusTree.PageAllocator() {
+        @Override
+        public int allocate() throws IOException {
+            if (freeHead != 0) {
+                int pageNo = freeHead;
+                ByteBuffer page = pool.pin(pageNo);
+                freeHead = page.getInt(0);
+                pool.unpin(pageNo, false);
+                return pageNo;
+            }
+            int pageNo = pool.extend();
+            pool.unpin(pageNo, true);
+            return pageNo;
+        }
+
+        @Override
+        public void free(int pageNo) throws IOException {
+            ByteBuffer page = pool.pin(pageNo);
+            page.putInt(0, freeHead);
+            pool.unpin(pageNo, true);
+            freeHead = pageNo;
+        }
+    };
+}
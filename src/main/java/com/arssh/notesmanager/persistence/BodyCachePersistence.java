@@ -0,0 +1,280 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.NoteBodyLoader;
+import com.arssh.notesmanager.structures.NoteLL;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/*
+    Keeps note bodies (mainText and aiSummary) in memory up to a byte budget.
+
+    Titles, tags and reminders always stay loaded. Bodies are read from the store the first time
+    they are used and tracked here in least-recently-used order, weighted by their size; when the
+    total goes over the budget the oldest are dropped and read back the next time they are used.
+
+    Only bodies the store holds an up-to-date copy of can be dropped. An edited body stays in
+    memory until a save that wrote it completes, which is why this sits between the write-behind
+    queue and the store: saveChanges here runs only when the store really writes.
+
+    Stores that can't read a single note's body back (getBodyLoader() == null) are passed
+    through unchanged.
+*/
+public class BodyCachePersistence implements PersistenceService {
+    private final PersistenceService delegate;
+    private final NoteBodyLoader storeLoader;
+    private final CachingLoader cachingLoader;
+    private final long budgetBytes;
+
+    // Guards everything below. Note locks may be taken while holding it, never the other way round.
+    private final Object lock = new Object();
+    // Resident bodies by note id, least recently used first, with the size they were counted at
+    private final LinkedHashMap<Integer, Entry> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BodyCachePersistence(PersistenceService delegate, long budgetBytes) {
+        this.delegate = delegate;
+        this.storeLoader = delegate.getBodyLoader();
+        this.cachingLoader = storeLoader != null ? new CachingLoader() : null;
+        this.budgetBytes = budgetBytes;
+    }
+
+    @Override
+    public void saveChanges(NoteLL notes, ChangeSet changes) throws IOException {
+        Map<Note, Integer> versions = bodyVersions(changes.getUpserts());
+        delegate.saveChanges(notes, changes);
+        afterSave(versions, changes.getDeletes());
+    }
+
+    @Override
+    public void saveNotes(NoteLL notes) throws IOException {
+        List<Note> all = new ArrayList<>(notes.size());
+        notes.forEach(all::add);
+        Map<Note, Integer> versions = bodyVersions(all);
+        delegate.saveNotes(notes);
+        afterSave(versions, List.of());
+    }
+
+    @Override
+    public NoteLL loadNotes() throws IOException {
+        return track(delegate.loadNotes());
+    }
+
+    @Override
+    public NoteLL loadNotes(Consumer<List<Note>> partLoaded) throws IOException {
+        return track(delegate.loadNotes(partLoaded));
+    }
+
+    @Override
+    public boolean dataFileExists() {
+        return delegate.dataFileExists();
+    }
+
+    @Override
+    public long getStoreVersion() {
+        return delegate.getStoreVersion();
+    }
+
+    @Override
+    public NoteBodyLoader getBodyLoader() {
+        return cachingLoader;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    // Drop a body that was read only in passing, e.g. to index it, so a scan over every note neither
+    // holds memory nor pushes out the bodies in use. Returns whether it was dropped.
+    public boolean release(Note note) {
+        if (cachingLoader == null) {
+            return false;
+        }
+        synchronized (lock) {
+            Entry entry = resident.get(note.getId());
+            if (entry == null || entry.note != note || !note.evictBody()) {
+                return false;
+            }
+            resident.remove(note.getId());
+            residentBytes -= entry.size;
+            return true;
+        }
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getResidentBytes() {
+        synchronized (lock) {
+            return residentBytes;
+        }
+    }
+
+    public int getResidentCount() {
+        synchronized (lock) {
+            return resident.size();
+        }
+    }
+
+    // Reads of a body that was already in memory
+    public long getHits() {
+        synchronized (lock) {
+            return hits;
+        }
+    }
+
+    // Reads that had to go to the store
+    public long getMisses() {
+        synchronized (lock) {
+            return misses;
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (lock) {
+            return evictions;
+        }
+    }
+
+    public double getHitRate() {
+        synchronized (lock) {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    // Route body loads of freshly loaded notes through the cache
+    private NoteLL track(NoteLL notes) {
+        if (cachingLoader != null) {
+            notes.forEach(note -> {
+                if (!note.isBodyLoaded()) {
+                    note.setBodyLoader(cachingLoader);
+                }
+            });
+        }
+        return notes;
+    }
+
+    private Map<Note, Integer> bodyVersions(Collection<Note> notes) {
+        Map<Note, Integer> versions = new HashMap<>();
+        if (cachingLoader != null) {
+            for (Note note : notes) {
+                versions.put(note, note.getBodyVersion());
+            }
+        }
+        return versions;
+    }
+
+    // Saved bodies can now be dropped and read back; deleted notes are forgotten
+    private void afterSave(Map<Note, Integer> versions, Iterable<Integer> deletes) {
+        if (cachingLoader == null) {
+            return;
+        }
+        versions.forEach((note, version) -> note.markBodySaved(version, cachingLoader));
+        synchronized (lock) {
+            for (int id : deletes) {
+                Entry entry = resident.remove(id);
+                if (entry != null) {
+                    residentBytes -= entry.size;
+                }
+            }
+            for (Note note : versions.keySet()) {
+                if (note.isBodyLoaded()) {
+                    count(note);
+                }
+            }
+            evictOverBudget(null);
+        }
+    }
+
+    // Add or re-measure a resident body; caller holds the lock
+    private void count(Note note) {
+        long size = note.getBodySize();
+        Entry entry = resident.get(note.getId());
+        if (entry == null || entry.note != note) {
+            if (entry != null) {
+                residentBytes -= entry.size;
+            }
+            resident.put(note.getId(), new Entry(note, size));
+        } else {
+            residentBytes -= entry.size;
+            entry.size = size;
+        }
+        residentBytes += size;
+    }
+
+    // Drop least recently used bodies until under budget, skipping ones with unsaved edits.
+    // `inUse` is the body being read right now; it stays even if it alone is over budget.
+    private void evictOverBudget(Note inUse) {
+        Iterator<Entry> it = resident.values().iterator();
+        while (residentBytes > budgetBytes && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.note == inUse) {
+                continue;
+            }
+            if (entry.note.evictBody()) {
+                it.remove();
+                residentBytes -= entry.size;
+                evictions++;
+            } else if (!entry.note.isBodyLoaded()) {
+                // Dropped some other way; just stop counting it
+                it.remove();
+                residentBytes -= entry.size;
+            }
+        }
+    }
+
+    private final class CachingLoader implements NoteBodyLoader {
+        @Override
+        public void loadBody(Note note) {
+            // Never call the store while holding the cache lock: it may be encoding another note
+            storeLoader.loadBody(note);
+            synchronized (lock) {
+                misses++;
+                count(note);
+                evictOverBudget(note);
+            }
+        }
+
+        @Override
+        public void bodyAccessed(Note note) {
+            synchronized (lock) {
+                hits++;
+                Entry entry = resident.get(note.getId());
+                if (entry != null && entry.note == note) {
+                    // Edits may have changed the size
+                    long size = note.getBodySize();
+                    if (size != entry.size) {
+                        residentBytes += size - entry.size;
+                        entry.size = size;
+                        evictOverBudget(note);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Note note;
+        long size;
+
+        Entry(Note note, long size) {
+            this.note = note;
+            this.size = size;
+        }
+    }
+}
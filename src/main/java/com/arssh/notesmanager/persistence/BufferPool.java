@@ -0,0 +1,294 @@
+package com.arssh.notesmanager.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    Fixed number of in-memory frames caching the pages of one file.
+
+    Pages are pinned while in use and released with unpin; a frame holding an unpinned page can be
+    reused. Victims are picked with the CLOCK algorithm: a hand sweeps the frames, giving every
+    recently used page one more round before evicting it. Dirty pages are written back on eviction
+    or on commit.
+
+    Writes are made atomic with a rollback journal next to the file. Before a committed page is
+    overwritten for the first time in a transaction its old image is appended to the journal, and
+    commit() empties the journal once every dirty page is on disk. If the app dies in between,
+    opening the file copies the old images back.
+*/
+final class BufferPool {
+    private static final int MIN_FRAMES = 16;
+
+    private final FileChannel channel;
+    private final FileChannel journal;
+    private final int pageSize;
+    private final Frame[] frames;
+    private final Map<Integer, Frame> byPage = new HashMap<>();
+    private int hand;
+
+    // Pages in the file, and how many there were at the last commit
+    private int pageCount;
+    private int committedPageCount;
+    // Committed pages whose old image is already in the journal
+    private final Set<Integer> journaled = new HashSet<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    BufferPool(File file, int pageSize, long budgetBytes) throws IOException {
+        this.pageSize = pageSize;
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.journal = FileChannel.open(new File(file.getPath() + ".journal").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+
+        this.pageCount = (int) (channel.size() / pageSize);
+        this.committedPageCount = pageCount;
+        this.frames = new Frame[(int) Math.max(MIN_FRAMES, budgetBytes / pageSize)];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new Frame(ByteBuffer.allocate(pageSize));
+        }
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    // Page contents, pinned until unpin is called
+    ByteBuffer pin(int pageNo) throws IOException {
+        if (pageNo < 0 || pageNo >= pageCount) {
+            throw new IOException("Page " + pageNo + " is outside the file (" + pageCount + " pages)");
+        }
+        Frame frame = byPage.get(pageNo);
+        if (frame != null) {
+            hits++;
+        } else {
+            misses++;
+            frame = claimFrame(pageNo);
+            frame.data.clear();
+            readFully(channel, frame.data, (long) pageNo * pageSize);
+        }
+        frame.pins++;
+        frame.referenced = true;
+        frame.data.clear();
+        return frame.data;
+    }
+
+    // Append a zeroed page to the file and pin it
+    int extend() throws IOException {
+        int pageNo = pageCount++;
+        Frame frame = claimFrame(pageNo);
+        frame.data.clear();
+        while (frame.data.hasRemaining()) {
+            frame.data.put((byte) 0);
+        }
+        frame.pins = 1;
+        frame.referenced = true;
+        frame.dirty = true;
+        frame.data.clear();
+        return pageNo;
+    }
+
+    void unpin(int pageNo, boolean dirty) {
+        Frame frame = byPage.get(pageNo);
+        if (frame == null || frame.pins == 0) {
+            throw new IllegalStateException("Page " + pageNo + " is not pinned");
+        }
+        frame.pins--;
+        frame.dirty |= dirty;
+    }
+
+    // Make every change since the last commit durable
+    void commit() throws IOException {
+        boolean journalGrew = false;
+        for (Frame frame : frames) {
+            if (frame.dirty) {
+                journalGrew |= journalOldImage(frame.pageNo);
+            }
+        }
+        if (journalGrew) {
+            journal.force(false);
+        }
+
+        for (Frame frame : frames) {
+            if (frame.dirty) {
+                writeBack(frame);
+            }
+        }
+        channel.force(false);
+
+        journal.truncate(0);
+        journal.force(false);
+        journaled.clear();
+        committedPageCount = pageCount;
+    }
+
+    // Drop changes that were never committed
+    void rollback() throws IOException {
+        for (Frame frame : frames) {
+            if (frame.pageNo >= 0) {
+                byPage.remove(frame.pageNo);
+                frame.pageNo = -1;
+                frame.dirty = false;
+                frame.pins = 0;
+            }
+        }
+        recover();
+        channel.truncate((long) committedPageCount * pageSize);
+        pageCount = committedPageCount;
+        journaled.clear();
+    }
+
+    void close() throws IOException {
+        channel.close();
+        journal.close();
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+
+    int getFrameCount() {
+        return frames.length;
+    }
+
+    private Frame claimFrame(int pageNo) throws IOException {
+        // Two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < frames.length * 2; step++) {
+            Frame frame = frames[hand];
+            hand = (hand + 1) % frames.length;
+            if (frame.pins > 0) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+
+            if (frame.pageNo >= 0) {
+                if (frame.dirty) {
+                    if (journalOldImage(frame.pageNo)) {
+                        journal.force(false);
+                    }
+                    writeBack(frame);
+                }
+                byPage.remove(frame.pageNo);
+                evictions++;
+            }
+            frame.pageNo = pageNo;
+            frame.dirty = false;
+            byPage.put(pageNo, frame);
+            return frame;
+        }
+        throw new IllegalStateException("All " + frames.length + " buffer pool frames are pinned");
+    }
+
+    private void writeBack(Frame frame) throws IOException {
+        ByteBuffer data = frame.data.duplicate();
+        data.clear();
+        long position = (long) frame.pageNo * pageSize;
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        frame.dirty = false;
+    }
+
+    // Journal layout: committed page count, then (page number, old image) records
+    private boolean journalOldImage(int pageNo) throws IOException {
+        boolean grew = false;
+        if (journal.size() == 0) {
+            // Written before any page so pages added by the transaction are cut off on recovery
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(0, committedPageCount);
+            journal.write(header, 0);
+            grew = true;
+        }
+        if (pageNo >= committedPageCount || !journaled.add(pageNo)) {
+            return grew;
+        }
+        ByteBuffer record = ByteBuffer.allocate(4 + pageSize);
+        record.putInt(pageNo);
+        readFully(channel, record, (long) pageNo * pageSize);
+        record.flip();
+        long position = journal.size();
+        while (record.hasRemaining()) {
+            position += journal.write(record, position);
+        }
+        return true;
+    }
+
+    // Copy back the old images of an interrupted transaction and cut off pages it added
+    private void recover() throws IOException {
+        if (journal.size() < 4) {
+            journal.truncate(0);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(journal, header, 0);
+        int originalPageCount = header.getInt(0);
+
+        long position = 4;
+        ByteBuffer record = ByteBuffer.allocate(4 + pageSize);
+        while (position + record.capacity() <= journal.size()) {
+            record.clear();
+            readFully(journal, record, position);
+            position += record.capacity();
+            int pageNo = record.getInt(0);
+            record.position(4);
+            long target = (long) pageNo * pageSize;
+            while (record.hasRemaining()) {
+                target += channel.write(record, target);
+            }
+        }
+        channel.truncate((long) originalPageCount * pageSize);
+        channel.force(false);
+        journal.truncate(0);
+        journal.force(false);
+    }
+
+    // Fill the rest of `buffer` from `position`; zeros past the end of the file
+    private static void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position);
+            if (read < 0) {
+                while (buffer.hasRemaining()) {
+                    buffer.put((byte) 0);
+                }
+                return;
+            }
+            position += read;
+        }
+    }
+
+    private static final class Frame {
+        final ByteBuffer data;
+        int pageNo = -1;
+        int pins;
+        boolean dirty;
+        boolean referenced;
+
+        Frame(ByteBuffer data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.structures.NoteLL;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    Notes to write and note ids to delete, keyed by id.
+
+    Editing a note several times leaves one upsert; deleting it drops the upsert. Upserts keep
+    the order of their first change, so notes added in one batch are written oldest first.
+*/
+public class ChangeSet {
+    private final Map<Integer, Note> upserts;
+    private final Set<Integer> deletes;
+
+    public ChangeSet() {
+        this.upserts = new LinkedHashMap<>();
+        this.deletes = new LinkedHashSet<>();
+    }
+
+    // Convert log-style changes; notes are looked up in `notes`, reminder changes carry none
+    public static ChangeSet of(NoteLL notes, List<NoteChange> changes) {
+        ChangeSet changeSet = new ChangeSet();
+        for (NoteChange change : changes) {
+            if (change.getType() == NoteChange.Type.DELETE) {
+                changeSet.delete(change.getId());
+                continue;
+            }
+            // Prefer the live note: the change only carries a copy
+            Note note = notes.findById(change.getId());
+            if (note == null) {
+                note = change.getNote();
+            }
+            if (note != null) {
+                changeSet.upsert(note);
+            }
+        }
+        return changeSet;
+    }
+
+    public void upsert(Note note) {
+        deletes.remove(note.getId());
+        upserts.put(note.getId(), note);
+    }
+
+    public void delete(int id) {
+        upserts.remove(id);
+        deletes.add(id);
+    }
+
+    // Fold in a later change set
+    public void addAll(ChangeSet later) {
+        for (int id : later.deletes) {
+            delete(id);
+        }
+        for (Note note : later.upserts.values()) {
+            upsert(note);
+        }
+    }
+
+    public Collection<Note> getUpserts() {
+        return Collections.unmodifiableCollection(upserts.values());
+    }
+
+    public Set<Integer> getDeletes() {
+        return Collections.unmodifiableSet(deletes);
+    }
+
+    // The same changes as log records
+    public List<NoteChange> toNoteChanges() {
+        List<NoteChange> changes = new ArrayList<>(size());
+        for (int id : deletes) {
+            changes.add(NoteChange.deleted(id));
+        }
+        for (Note note : upserts.values()) {
+            changes.add(NoteChange.updated(note));
+        }
+        return changes;
+    }
+
+    public int size() {
+        return upserts.size() + deletes.size();
+    }
+
+    public boolean isEmpty() {
+        return upserts.isEmpty() && deletes.isEmpty();
+    }
+}
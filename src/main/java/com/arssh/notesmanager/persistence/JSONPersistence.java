@@ -4,25 +4,41 @@ import com.arssh.notesmanager.Note;
 import com.arssh.notesmanager.structures.NoteLL;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.arssh.notesmanager.Reminder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 public class JSONPersistence implements PersistenceService {
+    private static final Type TAG_LIST_TYPE = new TypeToken<ArrayList<String>>(){}.getType();
+
     private final String dataFilePath;
     private final Gson gson;
 
     public JSONPersistence() {
         // Save location: user home directory/.notesmanager/notes.json
-        String userHome = System.getProperty("user.home");
-        this.dataFilePath = userHome + File.separator + ".notesmanager" + File.separator + "notes.json";
+        this(System.getProperty("user.home") + File.separator + ".notesmanager" + File.separator + "notes.json");
+    }
+
+    public JSONPersistence(String dataFilePath) {
+        this.dataFilePath = dataFilePath;
 
         // Configure Gson with LocalDateTime adapter
         this.gson = new GsonBuilder()
@@ -40,14 +56,23 @@ public class JSONPersistence implements PersistenceService {
             parentDir.mkdirs();
         }
 
-        // Convert NoteLL to List<Note>
-        List<Note> noteList = new ArrayList<>();
+        List<Note> noteList = new ArrayList<>(notes.size());
         notes.forEach(noteList::add);
 
-        // Write to file
-        try (FileWriter writer = new FileWriter(dataFile)) {
-            gson.toJson(noteList, writer);
+        // Write to a temp file and swap it in, so a loader still reading the old file is not cut off.
+        // Notes are written one at a time from copies, so bodies still on disk are read in one by one.
+        File tempFile = new File(dataFilePath + ".tmp");
+        try (JsonWriter writer = gson.newJsonWriter(new FileWriter(tempFile))) {
+            writer.beginArray();
+            for (Note note : noteList) {
+                gson.toJson(note.copy(), Note.class, writer);
+            }
+            writer.endArray();
+        } catch (UncheckedIOException e) {
+            // A body that can't be read fails the save rather than being written out empty
+            throw e.getCause();
         }
+        Files.move(tempFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
     }
 
     @Override
@@ -59,21 +84,80 @@ public class JSONPersistence implements PersistenceService {
             return new NoteLL();
         }
 
-        // Read from file
-        try (FileReader reader = new FileReader(dataFile)) {
-            Type listType = new TypeToken<ArrayList<Note>>(){}.getType();
-            List<Note> noteList = gson.fromJson(reader, listType);
-
-            // Create NoteLL and add each note
-            NoteLL noteLL = new NoteLL();
-            if (noteList != null) {
-                for (Note note : noteList) {
-                    noteLL.add(note);
+        // Read the metadata only, noting where each note is in the file; bodies are read when first used
+        List<Note> noteList = new ArrayList<>();
+        List<long[]> places = new ArrayList<>();
+        Charset charset = Charset.defaultCharset();
+        FileChannel file = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+        try {
+            JsonBodyLoader.ObjectScanner scanner = new JsonBodyLoader.ObjectScanner(Channels.newInputStream(file));
+            byte[] metadata;
+            while ((metadata = scanner.next()) != null) {
+                try (JsonReader reader = new JsonReader(new StringReader(new String(metadata, charset)))) {
+                    noteList.add(readNoteMetadata(reader));
                 }
+                places.add(new long[] { scanner.offset(), scanner.length() });
             }
+        } catch (JsonParseException | IllegalStateException e) {
+            file.close();
+            throw new IOException("Malformed notes file " + dataFile, e);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
 
+        // Create NoteLL with the notes in the saved order; notes saved without an id get one here
+        NoteLL noteLL = new NoteLL();
+        try {
+            noteLL.addAllLast(noteList);
+        } catch (IllegalArgumentException e) {
+            file.close();
+            throw e;
+        }
+        if (noteList.isEmpty()) {
+            file.close();
             return noteLL;
         }
+
+        long[] offsets = new long[places.size()];
+        int[] lengths = new int[places.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = places.get(i)[0];
+            lengths[i] = (int) places.get(i)[1];
+        }
+        JsonBodyLoader bodyLoader = new JsonBodyLoader(file, charset, noteList, offsets, lengths);
+        for (Note note : noteList) {
+            note.setBodyLoader(bodyLoader);
+        }
+        return noteLL;
+    }
+
+    // Read one note object, skipping mainText and aiSummary
+    private Note readNoteMetadata(JsonReader reader) throws IOException {
+        Note note = new Note(null, null);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    note.setId(reader.nextInt());
+                    break;
+                case "title":
+                    note.setTitle(JsonBodyLoader.nextNullableString(reader));
+                    break;
+                case "tags":
+                    List<String> tags = gson.fromJson(reader, TAG_LIST_TYPE);
+                    note.setTags(tags != null ? tags : new ArrayList<>());
+                    break;
+                case "reminder":
+                    note.setReminder(gson.fromJson(reader, Reminder.class));
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return note;
     }
 
     @Override
@@ -81,4 +165,11 @@ public class JSONPersistence implements PersistenceService {
         File dataFile = new File(dataFilePath);
         return dataFile.exists();
     }
+
+    // Only used as a file format here (LogPersistence snapshots, exports), so there is no change
+    // counter and the file's size and time are all there is to go by
+    @Override
+    public long getStoreVersion() {
+        return PersistenceService.fileVersion(0, new File(dataFilePath));
+    }
 }
@@ -0,0 +1,288 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.NoteBodyLoader;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Reads note bodies on demand after JSONPersistence has loaded only the metadata.
+
+    The metadata pass notes where each note's object starts in the file and how long it is.
+    A body is read the first time it is used: that one object is read back from the file and
+    only its mainText and aiSummary are kept. Objects are found by note id, not by position, and
+    the id in the object is checked before its text is used, so a note never gets another's text.
+
+    The file stays open until every body has been read, so bodies come from the file as it was
+    loaded even if a newer one is swapped in meanwhile.
+*/
+class JsonBodyLoader implements NoteBodyLoader {
+    private final FileChannel file;
+    private final Charset charset;
+    // Note id -> where its object is in the file; ids are dropped once their body was read
+    private final Map<Integer, Integer> positions;
+    private final long[] offsets;
+    private final int[] lengths;
+    private boolean closed;
+
+    // `offsets` and `lengths` give the object of each of `notes`, in the same order; ids must be assigned
+    JsonBodyLoader(FileChannel file, Charset charset, List<Note> notes, long[] offsets, int[] lengths) {
+        this.file = file;
+        this.charset = charset;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.positions = new HashMap<>();
+        for (int i = 0; i < notes.size(); i++) {
+            positions.put(notes.get(i).getId(), i);
+        }
+    }
+
+    @Override
+    public synchronized void loadBody(Note note) {
+        if (note.isBodyLoaded()) {
+            return;
+        }
+        Integer position = positions.get(note.getId());
+        if (position == null || closed) {
+            throw new UncheckedIOException(new IOException("Text of note " + note.getId() + " is not in the file"));
+        }
+
+        try {
+            ByteBuffer object = ByteBuffer.allocate(lengths[position]);
+            long offset = offsets[position];
+            while (object.hasRemaining()) {
+                if (file.read(object, offset + object.position()) < 0) {
+                    throw new EOFException("Notes file ends inside note " + note.getId());
+                }
+            }
+            readBody(object.array(), note);
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            System.err.println("Error reading note text: " + e.getMessage());
+            throw new UncheckedIOException(e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e));
+        }
+
+        positions.remove(note.getId());
+        if (positions.isEmpty()) {
+            close();
+        }
+    }
+
+    private void readBody(byte[] object, Note note) throws IOException {
+        String mainText = null;
+        String aiSummary = null;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(object), charset))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("id")) {
+                    int id = reader.nextInt();
+                    if (id != note.getId()) {
+                        throw new IOException("Notes file holds note " + id + " where note " + note.getId() + " was");
+                    }
+                } else if (name.equals("mainText")) {
+                    mainText = nextNullableString(reader);
+                } else if (name.equals("aiSummary")) {
+                    aiSummary = nextNullableString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        note.fillBody(mainText, aiSummary);
+    }
+
+    private void close() {
+        closed = true;
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.err.println("Error closing notes file: " + e.getMessage());
+        }
+    }
+
+    static String nextNullableString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /*
+        Splits the top-level array of a notes file into its objects, keeping track of where each
+        starts and how long it is. Only brackets, braces and strings are looked at, and the values
+        of mainText and aiSummary are skipped and handed back as null, so the metadata pass
+        neither copies nor decodes the bodies.
+    */
+    static final class ObjectScanner {
+        private static final int MAX_KEY = 16;
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[8192];
+        private int limit;
+        private int next;
+        // File offset of buffer[0]
+        private long bufferOffset;
+        private boolean started;
+        private long objectOffset;
+        private int objectLength;
+
+        ObjectScanner(InputStream in) {
+            this.in = in;
+        }
+
+        // The next object of the array without its body, or null after the last one. An empty or
+        // `null` file holds none.
+        byte[] next() throws IOException {
+            int b = skipWhitespace();
+            if (!started) {
+                started = true;
+                if (b < 0 || b == 'n') {
+                    return null;
+                }
+                if (b != '[') {
+                    throw new IOException("Notes file does not start with an array");
+                }
+                b = skipWhitespace();
+            } else if (b == ',') {
+                b = skipWhitespace();
+            }
+
+            if (b == ']') {
+                return null;
+            }
+            if (b != '{') {
+                throw new IOException(b < 0 ? "Notes file ends inside the array" : "Expected a note object");
+            }
+            objectOffset = bufferOffset + next - 1;
+            byte[] metadata = readObject();
+            objectLength = (int) (bufferOffset + next - objectOffset);
+            return metadata;
+        }
+
+        // Where the object last returned by next() starts in the file, and how many bytes it takes there
+        long offset() {
+            return objectOffset;
+        }
+
+        int length() {
+            return objectLength;
+        }
+
+        // The opening brace has just been read; bytes are copied out a buffer at a time
+        private byte[] readObject() throws IOException {
+            ByteArrayOutputStream object = new ByteArrayOutputStream();
+            StringBuilder key = new StringBuilder(MAX_KEY);
+            String lastString = null;
+            int start = next - 1;
+            int depth = 1;
+            boolean inString = false;
+            boolean escaped = false;
+            while (depth > 0) {
+                if (next == limit) {
+                    object.write(buffer, start, limit - start);
+                    if (!fill()) {
+                        throw new EOFException("Notes file ends inside a note");
+                    }
+                    start = 0;
+                }
+                byte b = buffer[next++];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                        lastString = key.length() <= MAX_KEY ? key.toString() : null;
+                    } else if (depth == 1 && key.length() <= MAX_KEY) {
+                        key.append((char) b);
+                    }
+                } else if (b == '"') {
+                    inString = true;
+                    key.setLength(0);
+                } else if (b == ':' && depth == 1 && ("mainText".equals(lastString) || "aiSummary".equals(lastString))) {
+                    object.write(buffer, start, next - start);
+                    object.write(NULL, 0, NULL.length);
+                    skipValue();
+                    start = next;
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            }
+            object.write(buffer, start, next - start);
+            return object.toByteArray();
+        }
+
+        // Skip a string or null value
+        private void skipValue() throws IOException {
+            int b = skipWhitespace();
+            if (b == 'n') {
+                for (int i = 1; i < NULL.length; i++) {
+                    read();
+                }
+                return;
+            }
+            if (b != '"') {
+                throw new IOException("Expected note text to be a string");
+            }
+            boolean escaped = false;
+            while (true) {
+                b = read();
+                if (b < 0) {
+                    throw new EOFException("Notes file ends inside a note");
+                }
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    return;
+                }
+            }
+        }
+
+        private int skipWhitespace() throws IOException {
+            int b = read();
+            while (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                b = read();
+            }
+            return b;
+        }
+
+        private int read() throws IOException {
+            if (next == limit && !fill()) {
+                return -1;
+            }
+            return buffer[next++] & 0xFF;
+        }
+
+        // Read the next chunk of the file into the buffer; false at the end
+        private boolean fill() throws IOException {
+            bufferOffset += limit;
+            next = 0;
+            limit = Math.max(in.read(buffer), 0);
+            return limit > 0;
+        }
+
+        private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    }
+}
@@ -0,0 +1,281 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.structures.NoteLL;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Snapshot + append-only log.
+
+    notes.json holds the last snapshot (same format JSONPersistence writes) and notes.log holds one
+    compact NoteChange per line. A mutation appends a single line, so its cost depends on the size of
+    the change instead of the size of the store. Loading reads the snapshot and replays the log on top.
+
+    Once the log grows past COMPACT_THRESHOLD_BYTES a background thread folds it into a fresh
+    snapshot. The compactor works only from the files on disk, so it never touches the in-memory notes.
+
+    notes.log.seq counts the writes, and is advanced before each one, for getStoreVersion.
+*/
+public class LogPersistence implements PersistenceService {
+    private static final long COMPACT_THRESHOLD_BYTES = 4L * 1024 * 1024;
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final JSONPersistence snapshot;
+    private final StoreSequence sequence;
+    private final Gson gson;
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    // Guards logWriter, the log file itself and logGeneration
+    private final Object logLock = new Object();
+    private Writer logWriter;
+    private long logGeneration;
+
+    public LogPersistence() {
+        this(System.getProperty("user.home") + File.separator + ".notesmanager");
+    }
+
+    public LogPersistence(String dataDirectory) {
+        this.snapshotFile = new File(dataDirectory, "notes.json");
+        this.logFile = new File(dataDirectory, "notes.log");
+        this.snapshot = new JSONPersistence(snapshotFile.getPath());
+        this.sequence = new StoreSequence(new File(dataDirectory, "notes.log.seq"));
+
+        // Log records are written compact, one per line
+        this.gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "notes-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void recordChange(NoteLL notes, NoteChange change) throws IOException {
+        recordChanges(notes, List.of(change));
+    }
+
+    // Group commit: all records go out with a single flush
+    @Override
+    public void recordChanges(NoteLL notes, List<NoteChange> changes) throws IOException {
+        StringBuilder records = new StringBuilder();
+        for (NoteChange change : changes) {
+            records.append(gson.toJson(change)).append('\n');
+        }
+        long logSize;
+
+        synchronized (logLock) {
+            sequence.advance();
+            Writer writer = openLogWriter();
+            writer.write(records.toString());
+            writer.flush();
+            logSize = logFile.length();
+        }
+
+        if (logSize > COMPACT_THRESHOLD_BYTES) {
+            scheduleCompaction();
+        }
+    }
+
+    @Override
+    public void saveChanges(NoteLL notes, ChangeSet changes) throws IOException {
+        if (!changes.isEmpty()) {
+            recordChanges(notes, changes.toNoteChanges());
+        }
+    }
+
+    // Write a full snapshot and start a new, empty log
+    @Override
+    public void saveNotes(NoteLL notes) throws IOException {
+        synchronized (logLock) {
+            sequence.advance();
+            File tempSnapshot = new File(snapshotFile.getPath() + ".tmp");
+            new JSONPersistence(tempSnapshot.getPath()).saveNotes(notes);
+            closeLogWriter();
+            Files.move(tempSnapshot.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(logFile.toPath());
+            logGeneration++;
+        }
+    }
+
+    @Override
+    public NoteLL loadNotes() throws IOException {
+        NoteLL notes = snapshot.loadNotes();
+        long logSize;
+
+        synchronized (logLock) {
+            logSize = logFile.length();
+            replay(notes, logSize);
+        }
+
+        if (logSize > COMPACT_THRESHOLD_BYTES) {
+            scheduleCompaction();
+        }
+        return notes;
+    }
+
+    @Override
+    public boolean dataFileExists() {
+        return snapshotFile.exists() || logFile.exists();
+    }
+
+    @Override
+    public long getStoreVersion() {
+        synchronized (logLock) {
+            return PersistenceService.fileVersion(sequence.get(), snapshotFile, logFile);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (logLock) {
+            closeLogWriter();
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compacting.compareAndSet(false, true)) {
+            try {
+                compactor.execute(() -> {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        System.err.println("Error compacting notes log: " + e.getMessage());
+                        e.printStackTrace();
+                    } finally {
+                        compacting.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Executor already shut down
+                compacting.set(false);
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        long cut;
+        long generation;
+        synchronized (logLock) {
+            if (logWriter != null) {
+                logWriter.flush();
+            }
+            cut = logFile.length();
+            generation = logGeneration;
+        }
+
+        // Fold snapshot + log[0, cut) into a new snapshot without holding the lock
+        NoteLL notes = snapshot.loadNotes();
+        replay(notes, cut);
+        File tempSnapshot = new File(snapshotFile.getPath() + ".tmp");
+        new JSONPersistence(tempSnapshot.getPath()).saveNotes(notes);
+
+        synchronized (logLock) {
+            if (generation != logGeneration) {
+                // saveNotes replaced the store while we were working
+                Files.deleteIfExists(tempSnapshot.toPath());
+                return;
+            }
+
+            // Keep whatever was appended after the cut
+            closeLogWriter();
+            File tempLog = new File(logFile.getPath() + ".tmp");
+            try (FileChannel source = FileChannel.open(logFile.toPath(), StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(tempLog.toPath(), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = cut;
+                long end = source.size();
+                while (position < end) {
+                    position += source.transferTo(position, end - position, target);
+                }
+            }
+
+            // A crash between the two moves only means some records get replayed twice, which is harmless
+            Files.move(tempSnapshot.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempLog.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            logGeneration++;
+        }
+    }
+
+    // Apply the first `limit` bytes of the log to notes
+    private void replay(NoteLL notes, long limit) throws IOException {
+        if (!logFile.exists() || limit == 0) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8))) {
+            long consumed = 0;
+            String line;
+            while (consumed < limit && (line = reader.readLine()) != null) {
+                consumed += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                NoteChange change;
+                try {
+                    change = gson.fromJson(line, NoteChange.class);
+                } catch (JsonParseException e) {
+                    // Torn write at the tail of the log
+                    System.err.println("Ignoring unreadable notes log record: " + e.getMessage());
+                    break;
+                }
+                if (change != null && change.getType() != null) {
+                    change.applyTo(notes);
+                }
+            }
+        }
+    }
+
+    private Writer openLogWriter() throws IOException {
+        if (logWriter == null) {
+            File parentDir = logFile.getParentFile();
+            if (parentDir != null && !parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+            logWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(logFile, true), StandardCharsets.UTF_8));
+        }
+        return logWriter;
+    }
+
+    private void closeLogWriter() throws IOException {
+        if (logWriter != null) {
+            logWriter.close();
+            logWriter = null;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.structures.NoteLL;
+
+/*
+    A single mutation of the note store, written as one line of the append-only log.
+
+    Records are keyed by note id and either set or clear that note's state, so replaying
+    a record that was already applied leaves the store unchanged. The title is kept for
+    readability and for records written before notes had ids.
+*/
+public class NoteChange {
+    public enum Type { ADD, UPDATE, DELETE, REMINDER }
+
+    private Type type;
+    private int id;
+    private String title;
+    private Note note;
+    private Reminder reminder;
+
+    private NoteChange(Type type, int id, String title, Note note, Reminder reminder) {
+        this.type = type;
+        this.id = id;
+        this.title = title;
+        this.note = note;
+        this.reminder = reminder;
+    }
+
+    // Records carry a copy: the note's own body may be off-heap or dropped, where Gson can't see it
+    public static NoteChange added(Note note) {
+        return new NoteChange(Type.ADD, note.getId(), note.getTitle(), note.copy(), null);
+    }
+
+    public static NoteChange updated(Note note) {
+        return new NoteChange(Type.UPDATE, note.getId(), note.getTitle(), note.copy(), null);
+    }
+
+    public static NoteChange deleted(Note note) {
+        return new NoteChange(Type.DELETE, note.getId(), note.getTitle(), null, null);
+    }
+
+    public static NoteChange deleted(int id) {
+        return new NoteChange(Type.DELETE, id, null, null, null);
+    }
+
+    public static NoteChange reminderChanged(Note note) {
+        return new NoteChange(Type.REMINDER, note.getId(), note.getTitle(), null, note.getReminder());
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    public Reminder getReminder() {
+        return reminder;
+    }
+
+    // Replay this change on top of a loaded store
+    public void applyTo(NoteLL notes) {
+        Note target = id != 0 ? notes.findById(id) : notes.findByTitle(title);
+
+        switch (type) {
+            case ADD:
+            case UPDATE:
+                if (target == null) {
+                    notes.add(note);
+                } else {
+                    // Updates keep the note where it was in the list
+                    note.setId(target.getId());
+                    notes.replace(note);
+                }
+                break;
+            case DELETE:
+                if (target != null) {
+                    notes.removeById(target.getId());
+                }
+                break;
+            case REMINDER:
+                if (target != null) {
+                    target.setReminder(reminder);
+                }
+                break;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.structures.TagDictionary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Compact binary encoding of a note.
+
+        version        byte
+        metadataLength varint
+        metadata       id, title, tag ids, reminder
+        body           mainText, aiSummary
+
+    Numbers are varints (zig-zag for signed ones), strings are a varint of (UTF-8 length + 1)
+    with 0 meaning null, and tags are ids into a TagDictionary shared by the whole store.
+    Reminder times are stored as seconds + nanos since the epoch of the local date-time.
+
+    Schema changes: new fields are appended to the end of the metadata or the body, so older
+    readers skip them (metadata is length-prefixed, the body ends the record). Anything that
+    cannot be read that way bumps VERSION and gets its own branch in the decoder.
+*/
+public class NoteCodec {
+    public static final int VERSION = 1;
+
+    private static final int REMINDER_PRESENT = 1;
+    private static final int REMINDER_ACTIVE = 2;
+    private static final int REMINDER_HAS_TIME = 4;
+
+    private final TagDictionary tags;
+
+    public NoteCodec(TagDictionary tags) {
+        this.tags = tags;
+    }
+
+    // New tags are added to the dictionary; callers persist them before the record
+    public byte[] encode(Note note) {
+        ByteArrayOutputStream metadata = new ByteArrayOutputStream(64);
+        writeVarInt(metadata, note.getId());
+        writeString(metadata, note.getTitle());
+
+        List<String> noteTags = note.getTags();
+        writeVarInt(metadata, noteTags.size());
+        for (String tag : noteTags) {
+            writeVarInt(metadata, tags.intern(tag));
+        }
+
+        Reminder reminder = note.getReminder();
+        if (reminder == null) {
+            metadata.write(0);
+        } else {
+            LocalDateTime time = reminder.getTime();
+            int flags = REMINDER_PRESENT
+                    | (reminder.isActive() ? REMINDER_ACTIVE : 0)
+                    | (time != null ? REMINDER_HAS_TIME : 0);
+            metadata.write(flags);
+            if (time != null) {
+                writeVarLong(metadata, zigZag(time.toEpochSecond(ZoneOffset.UTC)));
+                writeVarInt(metadata, time.getNano());
+            }
+            writeVarLong(metadata, zigZag(reminder.getPriority()));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(metadata.size() + 64);
+        out.write(VERSION);
+        writeVarInt(out, metadata.size());
+        out.write(metadata.toByteArray(), 0, metadata.size());
+        writeString(out, note.getMainText());
+        writeString(out, note.getAiSummary());
+        return out.toByteArray();
+    }
+
+    // Everything except mainText and aiSummary
+    public Note decodeMetadata(ByteBuffer record) throws IOException {
+        try {
+            ByteBuffer in = record.duplicate();
+            checkVersion(in);
+            int metadataLength = readVarInt(in);
+            ByteBuffer metadata = in.slice(in.position(), metadataLength);
+
+            Note note = new Note(null, null);
+            note.setId(readVarInt(metadata));
+            note.setTitle(readString(metadata));
+
+            int tagCount = readVarInt(metadata);
+            List<String> noteTags = new ArrayList<>(tagCount);
+            for (int i = 0; i < tagCount; i++) {
+                int tagId = readVarInt(metadata);
+                String tag = tags.get(tagId);
+                if (tag == null) {
+                    throw new IOException("Unknown tag id " + tagId);
+                }
+                noteTags.add(tag);
+            }
+            note.setTags(noteTags);
+
+            int flags = metadata.get();
+            if ((flags & REMINDER_PRESENT) != 0) {
+                LocalDateTime time = null;
+                if ((flags & REMINDER_HAS_TIME) != 0) {
+                    long seconds = unZigZag(readVarLong(metadata));
+                    int nanos = readVarInt(metadata);
+                    time = LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+                }
+                Reminder reminder = new Reminder(time, (int) unZigZag(readVarLong(metadata)));
+                if ((flags & REMINDER_ACTIVE) == 0) {
+                    reminder.deactivate();
+                }
+                note.setReminder(reminder);
+            }
+            return note;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated note record", e);
+        }
+    }
+
+    // Read mainText and aiSummary and hand them to a lazily loaded `note`
+    public void decodeBody(ByteBuffer record, Note note) throws IOException {
+        String[] body = readBody(record);
+        note.fillBody(body[0], body[1]);
+    }
+
+    public Note decode(ByteBuffer record) throws IOException {
+        Note note = decodeMetadata(record);
+        String[] body = readBody(record);
+        note.setMainText(body[0]);
+        note.setAiSummary(body[1]);
+        return note;
+    }
+
+    private static String[] readBody(ByteBuffer record) throws IOException {
+        try {
+            ByteBuffer in = record.duplicate();
+            checkVersion(in);
+            int metadataLength = readVarInt(in);
+            in.position(in.position() + metadataLength);
+            return new String[] { readString(in), readString(in) };
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated note record", e);
+        }
+    }
+
+    private static void checkVersion(ByteBuffer in) throws IOException {
+        int version = in.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported note record version " + version);
+        }
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static int readVarInt(ByteBuffer in) throws IOException {
+        long value = readVarLong(in);
+        if (value > 0xFFFFFFFFL) {
+            throw new IOException("Varint too large");
+        }
+        return (int) value;
+    }
+
+    static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Malformed varint");
+            }
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        String value = StandardCharsets.UTF_8.decode(in.slice(in.position(), length - 1)).toString();
+        in.position(in.position() + length - 1);
+        return value;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
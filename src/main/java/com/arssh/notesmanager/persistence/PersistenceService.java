@@ -1,10 +1,66 @@
 package com.arssh.notesmanager.persistence;
 
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.NoteBodyLoader;
 import com.arssh.notesmanager.structures.NoteLL;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 public interface PersistenceService {
     void saveNotes(NoteLL notes) throws IOException;
     NoteLL loadNotes() throws IOException;
     boolean dataFileExists();
+
+    // Load notes, handing each separately decoded part to `partLoaded` as it is ready. Sharded backends
+    // decode parts in parallel and call it from worker threads; others pass the whole list once.
+    default NoteLL loadNotes(Consumer<List<Note>> partLoaded) throws IOException {
+        NoteLL notes = loadNotes();
+        List<Note> all = new ArrayList<>(notes.size());
+        notes.forEach(all::add);
+        partLoaded.accept(all);
+        return notes;
+    }
+
+    // Write only the notes that changed. Backends that can only write the whole store fall back to saveNotes.
+    default void saveChanges(NoteLL notes, ChangeSet changes) throws IOException {
+        saveNotes(notes);
+    }
+
+    // Persist a single change
+    default void recordChange(NoteLL notes, NoteChange change) throws IOException {
+        saveChanges(notes, ChangeSet.of(notes, List.of(change)));
+    }
+
+    // Persist a batch of changes in one write
+    default void recordChanges(NoteLL notes, List<NoteChange> changes) throws IOException {
+        saveChanges(notes, ChangeSet.of(notes, changes));
+    }
+
+    // Reads the saved body of any stored note by id, or null if bodies can't be read back on demand
+    default NoteBodyLoader getBodyLoader() {
+        return null;
+    }
+
+    // Changes whenever the stored notes change, so caches built from them can be checked. 0 means unknown.
+    default long getStoreVersion() {
+        return 0;
+    }
+
+    // Release files and background workers held by the backend
+    default void close() throws IOException {
+    }
+
+    // Fingerprint of a store from its change counter (see StoreSequence) and the sizes and
+    // modification times of its files; the latter also catch edits made outside the app
+    static long fileVersion(long sequence, File... files) {
+        long version = 17 + sequence;
+        for (File file : files) {
+            version = 31 * version + file.length();
+            version = 31 * version + file.lastModified();
+        }
+        return version == 0 ? 1 : version;
+    }
 }
@@ -0,0 +1,629 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.NoteBodyLoader;
+import com.arssh.notesmanager.structures.NoteLL;
+import com.arssh.notesmanager.structures.TagDictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/*
+    Note store made of fixed-size, memory-mapped segment files.
+
+    Every write appends a length-prefixed record to the newest segment:
+        length | type | note id | seq | order | crc | payload
+    PUT records carry the note encoded with NoteCodec, DELETE records are tombstones and TAG
+    records add an entry to the store's tag dictionary. `seq` grows with every record, so the
+    newest version of a note wins no matter which segment it ends up in; `order` is the note's
+    place in the list (newest note highest). The crc covers the header fields before it and the
+    payload, so a flipped id or seq is caught like a torn payload. Segments written when it
+    covered only the payload are still read, with that check, but no longer appended to.
+
+    An in-memory index maps note id -> (segment, offset). It is rebuilt on open by hopping from
+    header to header, without decoding payloads. Loading decodes only titles, tags and reminders;
+    a note's text is read from its mapped record the first time it is needed. Metadata is decoded
+    in parallel slices, since records are independent once the index is built.
+
+    Sealed segments that are mostly dead records are compacted in the background: their live
+    records are copied to the newest segment and the file is emptied and deleted. A file that
+    can't be deleted yet (it may still be mapped) reads as an empty segment and is deleted on a
+    later compaction.
+*/
+public class SegmentedPersistence implements PersistenceService {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte TAG = 3;
+    // length(4) type(1) id(4) seq(8) order(8) crc(4)
+    private static final int HEADER_SIZE = 29;
+    // The crc covers the header up to its own slot
+    private static final int CRC_OFFSET = 25;
+    // Fewest records worth handing to a separate load task
+    private static final int LOAD_SLICE_MIN = 4096;
+
+    private final File directory;
+    private final int segmentSize;
+    private final NoteCodec codec;
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    // Guards everything below
+    private final Object lock = new Object();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<Integer, Location> index = new HashMap<>();
+    // Compacted segment files whose delete failed, retried on every compaction
+    private final List<File> retired = new ArrayList<>();
+    private final TagDictionary tags = new TagDictionary();
+    private boolean open;
+    private boolean closed;
+    private long nextSeq = 1;
+    private long maxOrder;
+
+    public SegmentedPersistence() {
+        this(System.getProperty("user.home") + File.separator + ".notesmanager" + File.separator + "segments");
+    }
+
+    public SegmentedPersistence(String directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public SegmentedPersistence(String directory, int segmentSize) {
+        this.directory = new File(directory);
+        this.segmentSize = segmentSize;
+        this.codec = new NoteCodec(tags);
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "notes-segment-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Write the whole store: every note is put again and notes that are gone get a tombstone
+    @Override
+    public void saveNotes(NoteLL notes) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            Set<Integer> stale = new HashSet<>(index.keySet());
+            List<Note> ordered = new ArrayList<>(notes.size());
+            notes.forEach(ordered::add);
+
+            long order = maxOrder + ordered.size();
+            for (Note note : ordered) {
+                put(note, order--);
+                stale.remove(note.getId());
+            }
+            maxOrder += ordered.size();
+            for (int id : stale) {
+                delete(id);
+            }
+            sync();
+        }
+        maybeCompact();
+    }
+
+    // Append one record per changed note
+    @Override
+    public void saveChanges(NoteLL notes, ChangeSet changes) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            for (int id : changes.getDeletes()) {
+                delete(id);
+            }
+            for (Note note : changes.getUpserts()) {
+                Location current = index.get(note.getId());
+                put(note, current != null ? current.order : ++maxOrder);
+            }
+            sync();
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public NoteLL loadNotes() throws IOException {
+        return loadNotes(part -> { });
+    }
+
+    // Records are decoded in parallel on the common fork-join pool, one slice of the list per task
+    @Override
+    public NoteLL loadNotes(Consumer<List<Note>> partLoaded) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+
+            List<Location> live = new ArrayList<>(index.values());
+            live.sort((a, b) -> Long.compare(b.order, a.order));
+
+            Note[] decoded = new Note[live.size()];
+            int sliceCount = Math.max(1, Math.min(live.size() / LOAD_SLICE_MIN,
+                    ForkJoinPool.getCommonPoolParallelism() * 4));
+            try {
+                IntStream.range(0, sliceCount).parallel().forEach(slice -> {
+                    int from = (int) ((long) live.size() * slice / sliceCount);
+                    int to = (int) ((long) live.size() * (slice + 1) / sliceCount);
+                    for (int i = from; i < to; i++) {
+                        decoded[i] = decodeMetadataUnchecked(live.get(i));
+                    }
+                    partLoaded.accept(Arrays.asList(decoded).subList(from, to));
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            NoteLL notes = new NoteLL();
+            notes.addAllLast(Arrays.asList(decoded));
+            return notes;
+        }
+    }
+
+    // Read one note straight from its mapped record
+    public Note readNote(int id) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            Location location = index.get(id);
+            if (location == null) {
+                return null;
+            }
+            return codec.decode(payload(location));
+        }
+    }
+
+    @Override
+    public NoteBodyLoader getBodyLoader() {
+        return this::loadBody;
+    }
+
+    @Override
+    public boolean dataFileExists() {
+        String[] names = directory.list((dir, name) -> name.startsWith("segment-"));
+        return names != null && names.length > 0;
+    }
+
+    // Sequence number of the newest record; unchanged by compaction
+    @Override
+    public long getStoreVersion() {
+        synchronized (lock) {
+            if (!closed) {
+                try {
+                    ensureOpen();
+                } catch (IOException e) {
+                    return 0;
+                }
+            }
+            return nextSeq;
+        }
+    }
+
+    public int getSegmentCount() {
+        synchronized (lock) {
+            return segments.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            segments.clear();
+            deleteRetired();
+            index.clear();
+            tags.clear();
+            open = false;
+            closed = true;
+        }
+    }
+
+    // Leaves the note without a body if it can't be read, so an empty one is never saved over it
+    private void loadBody(Note note) {
+        synchronized (lock) {
+            Location location = index.get(note.getId());
+            if (location == null) {
+                throw new UncheckedIOException(new IOException("Note " + note.getId() + " is no longer in the store"));
+            }
+            try {
+                codec.decodeBody(payload(location), note);
+            } catch (IOException e) {
+                System.err.println("Error reading note text: " + e.getMessage());
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void put(Note note, long order) throws IOException {
+        int knownTags = tags.size();
+        byte[] record = codec.encode(note);
+
+        // Tags first seen in this note go into the dictionary ahead of the note itself
+        for (int tagId = knownTags; tagId < tags.size(); tagId++) {
+            byte[] tag = tags.get(tagId).getBytes(StandardCharsets.UTF_8);
+            append(TAG, tagId, nextSeq++, 0, ByteBuffer.wrap(tag));
+        }
+
+        Location location = append(PUT, note.getId(), nextSeq++, order, ByteBuffer.wrap(record));
+        markDead(index.put(note.getId(), location));
+    }
+
+    private void delete(int id) throws IOException {
+        Location old = index.remove(id);
+        if (old == null) {
+            return;
+        }
+        markDead(old);
+        Location tombstone = append(DELETE, id, nextSeq++, old.order, ByteBuffer.allocate(0));
+        markDead(tombstone);
+    }
+
+    // Write one record at the end of the newest segment. The length goes in last, so a torn
+    // record reads as the end of the segment.
+    private Location append(byte type, int id, long seq, long order, ByteBuffer payload) throws IOException {
+        int size = HEADER_SIZE + payload.remaining();
+        Segment segment = writableSegment(size);
+        int offset = segment.writePos;
+
+        ByteBuffer header = ByteBuffer.allocate(CRC_OFFSET);
+        header.putInt(payload.remaining()).put(type).putInt(id).putLong(seq).putLong(order);
+        header.flip();
+        int crc = crcOf(header, payload);
+
+        ByteBuffer buffer = segment.buffer;
+        buffer.put(offset + 4, type);
+        buffer.putInt(offset + 5, id);
+        buffer.putLong(offset + 9, seq);
+        buffer.putLong(offset + 17, order);
+        buffer.putInt(offset + CRC_OFFSET, crc);
+        buffer.put(offset + HEADER_SIZE, payload, payload.position(), payload.remaining());
+        buffer.putInt(offset, payload.remaining());
+
+        segment.writePos += size;
+        segment.dirty = true;
+        return new Location(segment.number, offset, size, seq, order);
+    }
+
+    private Segment writableSegment(int size) throws IOException {
+        Segment active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        // Keep at least 4 zero bytes after the last record as the end marker
+        if (active != null && !active.payloadCrc && active.writePos + size + 4 <= active.capacity) {
+            return active;
+        }
+        int number = active == null ? 1 : active.number + 1;
+        Segment segment = Segment.create(segmentFile(number), number, Math.max(segmentSize, size + 4));
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private void sync() {
+        for (Segment segment : segments.values()) {
+            if (segment.dirty) {
+                segment.buffer.force();
+                segment.dirty = false;
+            }
+        }
+    }
+
+    private void markDead(Location location) {
+        if (location != null) {
+            Segment segment = segments.get(location.segment);
+            if (segment != null) {
+                segment.deadBytes += location.size;
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (open) {
+            return;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".dat"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                int number = Integer.parseInt(file.getName().substring(8, file.getName().length() - 4));
+                segments.put(number, Segment.open(file, number));
+            }
+        }
+
+        // Replay every record; the highest seq per note wins
+        Map<Integer, Long> newestSeq = new HashMap<>();
+        for (Segment segment : segments.values()) {
+            segment.writePos = scan(segment, (location, type, id) -> {
+                nextSeq = Math.max(nextSeq, location.seq + 1);
+                maxOrder = Math.max(maxOrder, location.order);
+
+                if (type == TAG) {
+                    tags.put(id, StandardCharsets.UTF_8.decode(payload(location)).toString());
+                    return;
+                }
+
+                Long newest = newestSeq.get(id);
+                if (newest != null && newest > location.seq) {
+                    segment.deadBytes += location.size;
+                    return;
+                }
+                newestSeq.put(id, location.seq);
+                if (type == PUT) {
+                    markDead(index.put(id, location));
+                } else {
+                    markDead(index.remove(id));
+                    segment.deadBytes += location.size;
+                }
+            });
+        }
+        open = true;
+    }
+
+    // Walk the records of a segment and return the offset where the next one would go. The first
+    // record tells whether the segment's crcs cover the header too.
+    private static int scan(Segment segment, RecordVisitor visitor) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_SIZE <= segment.capacity) {
+            int length = buffer.getInt(offset);
+            byte type = buffer.get(offset + 4);
+            if (length <= 0 && type == 0) {
+                break;
+            }
+            if (length < 0 || offset + HEADER_SIZE + length > segment.capacity || (type < PUT || type > TAG)) {
+                System.err.println("Ignoring corrupt record in " + segment.file.getName() + " at " + offset);
+                break;
+            }
+
+            ByteBuffer payload = buffer.slice(offset + HEADER_SIZE, length);
+            int stored = buffer.getInt(offset + CRC_OFFSET);
+            boolean valid;
+            if (segment.payloadCrc) {
+                valid = crcOf(payload) == stored;
+            } else {
+                valid = crcOf(buffer.slice(offset, CRC_OFFSET), payload) == stored;
+                if (!valid && offset == 0 && crcOf(payload) == stored) {
+                    segment.payloadCrc = true;
+                    valid = true;
+                }
+            }
+            if (!valid) {
+                System.err.println("Ignoring torn record in " + segment.file.getName() + " at " + offset);
+                break;
+            }
+
+            Location location = new Location(segment.number, offset, HEADER_SIZE + length,
+                    buffer.getLong(offset + 9), buffer.getLong(offset + 17));
+            visitor.visit(location, type, buffer.getInt(offset + 5));
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    // Leaves the parts' positions where they were
+    private static int crcOf(ByteBuffer... parts) {
+        CRC32 crc = new CRC32();
+        for (ByteBuffer part : parts) {
+            crc.update(part.duplicate());
+        }
+        return (int) crc.getValue();
+    }
+
+    private void maybeCompact() {
+        synchronized (lock) {
+            if (findCompactable() == null && retired.isEmpty()) {
+                return;
+            }
+        }
+        if (compacting.compareAndSet(false, true)) {
+            try {
+                compactor.execute(() -> {
+                    try {
+                        compactAll();
+                    } catch (IOException e) {
+                        System.err.println("Error compacting note segments: " + e.getMessage());
+                        e.printStackTrace();
+                    } finally {
+                        compacting.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Executor already shut down
+                compacting.set(false);
+            }
+        }
+    }
+
+    // One segment per lock hold, so readers and writers get in between
+    private void compactAll() throws IOException {
+        while (true) {
+            synchronized (lock) {
+                if (!open) {
+                    return;
+                }
+                deleteRetired();
+                Segment segment = findCompactable();
+                if (segment == null) {
+                    return;
+                }
+                compact(segment);
+            }
+        }
+    }
+
+    // A sealed segment with at least half of its bytes dead
+    private Segment findCompactable() {
+        if (!open || segments.size() < 2) {
+            return null;
+        }
+        for (Segment segment : segments.headMap(segments.lastKey()).values()) {
+            if (segment.deadBytes * 2 >= segment.writePos) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private void compact(Segment segment) throws IOException {
+        boolean oldest = segment.number == segments.firstKey();
+        List<Location> live = new ArrayList<>();
+        List<Location> tombstones = new ArrayList<>();
+        List<Integer> tombstoneIds = new ArrayList<>();
+        List<Location> tagRecords = new ArrayList<>();
+        List<Integer> tagIds = new ArrayList<>();
+
+        scan(segment, (location, type, id) -> {
+            Location current = index.get(id);
+            if (type == TAG) {
+                // Dictionary entries are never dead
+                tagRecords.add(location);
+                tagIds.add(id);
+            } else if (type == PUT && current != null && current.segment == segment.number && current.offset == location.offset) {
+                live.add(location);
+            } else if (type == DELETE && !oldest && current == null) {
+                // Older segments may still hold a PUT this tombstone hides
+                tombstones.add(location);
+                tombstoneIds.add(id);
+            }
+        });
+
+        for (int i = 0; i < tagRecords.size(); i++) {
+            Location location = tagRecords.get(i);
+            append(TAG, tagIds.get(i), location.seq, 0, payload(location));
+        }
+        for (Location location : live) {
+            ByteBuffer payload = payload(location);
+            int id = segment.buffer.getInt(location.offset + 5);
+            index.put(id, append(PUT, id, location.seq, location.order, payload));
+        }
+        for (int i = 0; i < tombstones.size(); i++) {
+            Location location = tombstones.get(i);
+            markDead(append(DELETE, tombstoneIds.get(i), location.seq, location.order, ByteBuffer.allocate(0)));
+        }
+        sync();
+
+        // Blank the first header first: if the file outlives the delete, it opens as an empty
+        // segment rather than bringing back records whose tombstones are gone
+        segment.buffer.putInt(0, 0);
+        segment.buffer.put(4, (byte) 0);
+        segment.buffer.force();
+        segments.remove(segment.number);
+        segment.channel.close();
+        // The mapping goes with the last reference to the segment; nothing else keeps its buffer
+        if (!segment.file.delete()) {
+            System.err.println("Could not delete compacted segment " + segment.file.getName() + ", will retry");
+            retired.add(segment.file);
+        }
+    }
+
+    private void deleteRetired() {
+        retired.removeIf(file -> file.delete() || !file.exists());
+    }
+
+    // Zero-copy view of a record's payload
+    // Called from load workers while the caller holds the lock, so nothing is remapped underneath
+    private Note decodeMetadataUnchecked(Location location) {
+        try {
+            Note note = codec.decodeMetadata(payload(location));
+            note.setBodyLoader(this::loadBody);
+            return note;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer payload(Location location) {
+        Segment segment = segments.get(location.segment);
+        return segment.buffer.slice(location.offset + HEADER_SIZE, location.size - HEADER_SIZE);
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, String.format("segment-%08d.dat", number));
+    }
+
+    private interface RecordVisitor {
+        void visit(Location location, byte type, int id);
+    }
+
+    // Where the newest record of a note lives
+    private static final class Location {
+        final int segment;
+        final int offset;
+        final int size;
+        final long seq;
+        final long order;
+
+        Location(int segment, int offset, int size, long seq, long order) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.seq = seq;
+            this.order = order;
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final int number;
+        final int capacity;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePos;
+        long deadBytes;
+        boolean dirty;
+        // Written when crcs covered only the payload; read, never appended to
+        boolean payloadCrc;
+
+        private Segment(File file, int number, FileChannel channel) throws IOException {
+            this.file = file;
+            this.number = number;
+            this.channel = channel;
+            this.capacity = (int) channel.size();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        static Segment create(File file, int number, int capacity) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(capacity);
+            }
+            return open(file, number);
+        }
+
+        static Segment open(File file, int number) throws IOException {
+            FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+            try {
+                return new Segment(file, number, channel);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.structures.NoteLL;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+    JSON note store split into SHARD_COUNT files by a hash of the note id.
+
+    Each shard is a base file (shard-NNN.json) plus a change log (shard-NNN.log) with one compact
+    record per line: a note with its place in the list, or the id of a deleted note. Entries
+    store that place next to the note, since notes are no longer in one ordered file.
+
+    saveChanges appends the records of a change to the logs of the shards it touches, so an edit
+    costs about the size of the notes it changed. Once a shard's log holds as many records as the
+    shard holds notes, the shard is folded: its base file is rewritten and the log deleted. A
+    fold costs O(notes in the shard), about corpus / SHARD_COUNT, but comes at most once per that
+    many records, so writes stay proportional to the change on average.
+
+    Loading parses the shards in parallel, replays each log on top of its base, sorts each shard
+    by place and merges them into one list. A record torn by a crash ends the replay of that log.
+
+    shards.seq counts the writes, and is advanced before each one, for getStoreVersion.
+*/
+public class ShardedJsonPersistence implements PersistenceService {
+    public static final int DEFAULT_SHARD_COUNT = 64;
+    // Logs shorter than this are never folded, so small shards aren't rewritten on every other edit
+    private static final int MIN_FOLD_RECORDS = 64;
+
+    private static final Type ENTRY_LIST_TYPE = new TypeToken<ArrayList<ShardEntry>>(){}.getType();
+
+    private final File directory;
+    private final int shardCount;
+    private final Gson gson;
+    private final StoreSequence sequence;
+
+    // What is on disk: note id -> list position (highest first) and the ids in each shard
+    private final Object lock = new Object();
+    private final Map<Integer, Long> orders = new HashMap<>();
+    private final List<Set<Integer>> shardIds = new ArrayList<>();
+    // Records in each shard's log
+    private final int[] logRecords;
+    private long maxOrder;
+    private boolean indexed;
+
+    public ShardedJsonPersistence() {
+        this(System.getProperty("user.home") + File.separator + ".notesmanager" + File.separator + "shards");
+    }
+
+    public ShardedJsonPersistence(String directory) {
+        this(directory, DEFAULT_SHARD_COUNT);
+    }
+
+    public ShardedJsonPersistence(String directory, int shardCount) {
+        this.directory = new File(directory);
+        this.shardCount = shardCount;
+        this.logRecords = new int[shardCount];
+        this.sequence = new StoreSequence(new File(directory, "shards.seq"));
+        this.gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+        for (int i = 0; i < shardCount; i++) {
+            shardIds.add(new HashSet<>());
+        }
+    }
+
+    @Override
+    public void saveChanges(NoteLL notes, ChangeSet changes) throws IOException {
+        synchronized (lock) {
+            ensureIndexed();
+            sequence.advance();
+            Map<Integer, StringBuilder> records = new TreeMap<>();
+            Map<Integer, Note> changed = new HashMap<>();
+            for (int id : changes.getDeletes()) {
+                if (orders.remove(id) != null) {
+                    shardIds.get(shardOf(id)).remove(id);
+                    addRecord(records, new LogRecord(id, 0, null));
+                }
+            }
+
+            for (Note note : changes.getUpserts()) {
+                int id = note.getId();
+                if (!orders.containsKey(id)) {
+                    orders.put(id, ++maxOrder);
+                }
+                shardIds.get(shardOf(id)).add(id);
+                addRecord(records, new LogRecord(id, orders.get(id), note.copy()));
+                changed.put(id, note);
+            }
+
+            for (Map.Entry<Integer, StringBuilder> entry : records.entrySet()) {
+                int shard = entry.getKey();
+                if (logRecords[shard] >= Math.max(MIN_FOLD_RECORDS, shardIds.get(shard).size())) {
+                    writeShard(shard, notes, changed);
+                } else {
+                    appendLog(shard, entry.getValue());
+                }
+            }
+        }
+    }
+
+    // Rewrite every shard from the list
+    @Override
+    public void saveNotes(NoteLL notes) throws IOException {
+        synchronized (lock) {
+            sequence.advance();
+            orders.clear();
+            for (Set<Integer> ids : shardIds) {
+                ids.clear();
+            }
+
+            long[] order = { notes.size() };
+            notes.forEach(note -> {
+                orders.put(note.getId(), order[0]--);
+                shardIds.get(shardOf(note.getId())).add(note.getId());
+            });
+            maxOrder = notes.size();
+            indexed = true;
+
+            for (int shard = 0; shard < shardCount; shard++) {
+                writeShard(shard, notes, Map.of());
+            }
+        }
+    }
+
+    @Override
+    public NoteLL loadNotes() throws IOException {
+        return loadNotes(part -> { });
+    }
+
+    // Shards are read and sorted in parallel on the common fork-join pool, then merged by order
+    @Override
+    public NoteLL loadNotes(Consumer<List<Note>> partLoaded) throws IOException {
+        synchronized (lock) {
+            List<ShardData> read;
+            try {
+                read = IntStream.range(0, shardCount).parallel()
+                        .mapToObj(shard -> {
+                            ShardData data = readShardUnchecked(shard);
+                            data.entries.sort((a, b) -> Long.compare(b.order, a.order));
+                            List<Note> part = new ArrayList<>(data.entries.size());
+                            for (ShardEntry entry : data.entries) {
+                                part.add(entry.note);
+                            }
+                            partLoaded.accept(part);
+                            return data;
+                        })
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            orders.clear();
+            maxOrder = 0;
+            List<List<ShardEntry>> shards = new ArrayList<>(shardCount);
+            for (int shard = 0; shard < shardCount; shard++) {
+                shards.add(read.get(shard).entries);
+                logRecords[shard] = read.get(shard).logRecords;
+                Set<Integer> ids = shardIds.get(shard);
+                ids.clear();
+                for (ShardEntry entry : shards.get(shard)) {
+                    ids.add(entry.note.getId());
+                    orders.put(entry.note.getId(), entry.order);
+                    maxOrder = Math.max(maxOrder, entry.order);
+                }
+            }
+            indexed = true;
+            return merge(shards);
+        }
+    }
+
+    @Override
+    public boolean dataFileExists() {
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (shardFile(shard).exists() || logFile(shard).exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getStoreVersion() {
+        File[] files = new File[shardCount * 2];
+        for (int shard = 0; shard < shardCount; shard++) {
+            files[shard * 2] = shardFile(shard);
+            files[shard * 2 + 1] = logFile(shard);
+        }
+        return PersistenceService.fileVersion(sequence.get(), files);
+    }
+
+    private void ensureIndexed() throws IOException {
+        if (!indexed) {
+            loadNotes();
+        }
+    }
+
+    // Rewrite the shard's base file from the list and drop its log
+    private void writeShard(int shard, NoteLL notes, Map<Integer, Note> changed) throws IOException {
+        List<ShardEntry> entries = new ArrayList<>();
+        for (int id : shardIds.get(shard)) {
+            Note note = changed.containsKey(id) ? changed.get(id) : notes.findById(id);
+            if (note != null) {
+                entries.add(new ShardEntry(orders.get(id), note.copy()));
+            }
+        }
+        entries.sort((a, b) -> Long.compare(b.order, a.order));
+
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        File file = shardFile(shard);
+        if (entries.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+        } else {
+            File tempFile = new File(file.getPath() + ".tmp");
+            try (FileWriter writer = new FileWriter(tempFile)) {
+                gson.toJson(entries, ENTRY_LIST_TYPE, writer);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // A crash before the log is gone only replays records the base already has, which is harmless
+        Files.deleteIfExists(logFile(shard).toPath());
+        logRecords[shard] = 0;
+    }
+
+    // Records are grouped by shard so each touched log is appended to once
+    private void addRecord(Map<Integer, StringBuilder> records, LogRecord record) {
+        StringBuilder lines = records.computeIfAbsent(shardOf(record.id), shard -> new StringBuilder());
+        lines.append(gson.toJson(record)).append('\n');
+    }
+
+    private void appendLog(int shard, CharSequence lines) throws IOException {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(logFile(shard), true), StandardCharsets.UTF_8)) {
+            writer.append(lines);
+        }
+        for (int i = 0; i < lines.length(); i++) {
+            if (lines.charAt(i) == '\n') {
+                logRecords[shard]++;
+            }
+        }
+    }
+
+    // The shard's base entries with its log replayed on top
+    private ShardData readShardWithLog(int shard) throws IOException {
+        Map<Integer, ShardEntry> byId = new LinkedHashMap<>();
+        for (ShardEntry entry : readShard(shard)) {
+            byId.put(entry.note.getId(), entry);
+        }
+
+        int replayed = 0;
+        File file = logFile(shard);
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    LogRecord record;
+                    try {
+                        record = gson.fromJson(line, LogRecord.class);
+                    } catch (JsonParseException e) {
+                        // Torn write at the tail of the log. Records appended after it would be
+                        // unreadable too, so the shard is folded on its next change instead.
+                        System.err.println("Ignoring unreadable note shard record: " + e.getMessage());
+                        replayed = Integer.MAX_VALUE;
+                        break;
+                    }
+                    if (record.note == null) {
+                        byId.remove(record.id);
+                    } else {
+                        record.note.setId(record.id);
+                        byId.put(record.id, new ShardEntry(record.order, record.note));
+                    }
+                    replayed++;
+                }
+            }
+        }
+        return new ShardData(new ArrayList<>(byId.values()), replayed);
+    }
+
+    private List<ShardEntry> readShard(int shard) throws IOException {
+        File file = shardFile(shard);
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        try (FileReader reader = new FileReader(file)) {
+            List<ShardEntry> entries = gson.fromJson(reader, ENTRY_LIST_TYPE);
+            return entries != null ? entries : new ArrayList<>();
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed note shard " + file, e);
+        }
+    }
+
+    private ShardData readShardUnchecked(int shard) {
+        try {
+            return readShardWithLog(shard);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // k-way merge of shards that are each sorted by order, highest first
+    private static NoteLL merge(List<List<ShardEntry>> shards) {
+        // {shard, position} of the next entry of every non-empty shard
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) ->
+                Long.compare(shards.get(b[0]).get(b[1]).order, shards.get(a[0]).get(a[1]).order));
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (!shards.get(shard).isEmpty()) {
+                heads.add(new int[] { shard, 0 });
+            }
+        }
+
+        List<Note> merged = new ArrayList<>();
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<ShardEntry> entries = shards.get(head[0]);
+            merged.add(entries.get(head[1]).note);
+            if (++head[1] < entries.size()) {
+                heads.add(head);
+            }
+        }
+        NoteLL notes = new NoteLL();
+        notes.addAllLast(merged);
+        return notes;
+    }
+
+    private int shardOf(int id) {
+        return Math.floorMod(id * 0x9E3779B9, shardCount);
+    }
+
+    private File shardFile(int shard) {
+        return new File(directory, String.format("shard-%03d.json", shard));
+    }
+
+    private File logFile(int shard) {
+        return new File(directory, String.format("shard-%03d.log", shard));
+    }
+
+    // One note and its place in the list
+    private static final class ShardEntry {
+        private long order;
+        private Note note;
+
+        // For Gson
+        private ShardEntry() {
+        }
+
+        ShardEntry(long order, Note note) {
+            this.order = order;
+            this.note = note;
+        }
+    }
+
+    // One line of a shard log: a note and its place in the list, or a deleted note when `note` is null
+    private static final class LogRecord {
+        private int id;
+        private long order;
+        private Note note;
+
+        // For Gson
+        private LogRecord() {
+        }
+
+        LogRecord(int id, long order, Note note) {
+            this.id = id;
+            this.order = order;
+            this.note = note;
+        }
+    }
+
+    // A shard as loaded, and how many log records were replayed onto it
+    private static final class ShardData {
+        final List<ShardEntry> entries;
+        final int logRecords;
+
+        ShardData(List<ShardEntry> entries, int logRecords) {
+            this.entries = entries;
+            this.logRecords = logRecords;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.arssh.notesmanager.persistence;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/*
+    Change counter kept in a small file next to a store whose own files carry no version.
+
+    It is advanced before each write to the store, so once a write has started the store's
+    version no longer matches anything stamped earlier, even if the write never finished or
+    left the files with the same sizes and modification times. The counter is 8 bytes written
+    in place, so advancing it costs one small write rather than a temp file and a rename.
+*/
+final class StoreSequence {
+    private final File file;
+    // -1 until read from the file
+    private long value = -1;
+
+    StoreSequence(File file) {
+        this.file = file;
+    }
+
+    synchronized long get() {
+        if (value < 0) {
+            value = read();
+        }
+        return value;
+    }
+
+    // Call before writing the store
+    synchronized void advance() throws IOException {
+        long next = get() + 1;
+        File parentDir = file.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.writeLong(next);
+        }
+        value = next;
+    }
+
+    private long read() {
+        if (!file.exists()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readLong();
+        } catch (IOException e) {
+            System.err.println("Error reading store sequence " + file + ": " + e.getMessage());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.arssh.notesmanager.persistence;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.structures.NoteLL;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+    Write-behind wrapper around another PersistenceService.
+
+    Mutations only queue their change and return. The first change of a burst schedules a flush
+    flushWindowMillis later on a single background thread; everything queued by then goes to the
+    delegate as one ChangeSet (group commit), so a note edited many times is written once.
+    A pending full save absorbs any queued changes.
+
+    flush() and close() drain the queue on the flusher thread, so writes never run concurrently.
+*/
+public class WriteBehindPersistence implements PersistenceService {
+    private final PersistenceService delegate;
+    private final long flushWindowMillis;
+    private final ScheduledExecutorService flusher;
+
+    // Guards everything below
+    private final Object pendingLock = new Object();
+    private ChangeSet pendingChanges = new ChangeSet();
+    private NoteLL pendingNotes;
+    private boolean fullSavePending;
+    private boolean flushScheduled;
+    private long dirtySinceNanos;
+    private long pendingRequests;
+
+    // Counters for tuning the window
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong changesWritten = new AtomicLong();
+    private final AtomicLong coalescedWrites = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong totalFlushLatencyNanos = new AtomicLong();
+    private final AtomicLong maxFlushLatencyNanos = new AtomicLong();
+    private final AtomicLong lastFlushLatencyNanos = new AtomicLong();
+
+    public WriteBehindPersistence(PersistenceService delegate, long flushWindowMillis) {
+        this.delegate = delegate;
+        this.flushWindowMillis = flushWindowMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "notes-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void saveChanges(NoteLL notes, ChangeSet changes) {
+        synchronized (pendingLock) {
+            pendingChanges.addAll(changes);
+            markDirty(notes);
+        }
+    }
+
+    @Override
+    public void recordChange(NoteLL notes, NoteChange change) {
+        saveChanges(notes, ChangeSet.of(notes, List.of(change)));
+    }
+
+    @Override
+    public void recordChanges(NoteLL notes, List<NoteChange> changes) {
+        saveChanges(notes, ChangeSet.of(notes, changes));
+    }
+
+    @Override
+    public void saveNotes(NoteLL notes) {
+        synchronized (pendingLock) {
+            fullSavePending = true;
+            markDirty(notes);
+        }
+    }
+
+    @Override
+    public NoteLL loadNotes() throws IOException {
+        flush();
+        return delegate.loadNotes();
+    }
+
+    @Override
+    public NoteLL loadNotes(Consumer<List<Note>> partLoaded) throws IOException {
+        flush();
+        return delegate.loadNotes(partLoaded);
+    }
+
+    @Override
+    public boolean dataFileExists() {
+        return delegate.dataFileExists();
+    }
+
+    // Only meaningful once pending changes have been flushed
+    @Override
+    public long getStoreVersion() {
+        return delegate.getStoreVersion();
+    }
+
+    // Block until everything queued so far has been handed to the delegate
+    public void flush() throws IOException {
+        if (flusher.isShutdown()) {
+            drain();
+            return;
+        }
+
+        try {
+            flusher.submit(() -> {
+                drain();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing notes", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error flushing notes", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delegate.close();
+        }
+    }
+
+    public long getFlushWindowMillis() {
+        return flushWindowMillis;
+    }
+
+    // Number of batches written to the delegate
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    // Number of note upserts and deletes written to the delegate
+    public long getChangesWritten() {
+        return changesWritten.get();
+    }
+
+    // Writes saved by merging a request into a batch that was already pending
+    public long getCoalescedWrites() {
+        return coalescedWrites.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    // Time from the first change of a batch until the delegate finished writing it
+    public double getAverageFlushLatencyMillis() {
+        long flushes = flushCount.get();
+        return flushes == 0 ? 0 : totalFlushLatencyNanos.get() / 1_000_000.0 / flushes;
+    }
+
+    public double getMaxFlushLatencyMillis() {
+        return maxFlushLatencyNanos.get() / 1_000_000.0;
+    }
+
+    public double getLastFlushLatencyMillis() {
+        return lastFlushLatencyNanos.get() / 1_000_000.0;
+    }
+
+    // Caller holds pendingLock
+    private void markDirty(NoteLL notes) {
+        pendingNotes = notes;
+        pendingRequests++;
+        if (flushScheduled) {
+            return;
+        }
+
+        flushScheduled = true;
+        dirtySinceNanos = System.nanoTime();
+        if (flusher.isShutdown()) {
+            return;
+        }
+        flusher.schedule(() -> {
+            try {
+                drain();
+            } catch (IOException e) {
+                System.err.println("Error saving notes: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }, flushWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void drain() throws IOException {
+        ChangeSet changes;
+        NoteLL notes;
+        boolean fullSave;
+        long dirtySince;
+        long requests;
+
+        synchronized (pendingLock) {
+            if (!flushScheduled) {
+                return;
+            }
+            changes = pendingChanges;
+            notes = pendingNotes;
+            fullSave = fullSavePending;
+            dirtySince = dirtySinceNanos;
+            requests = pendingRequests;
+
+            pendingChanges = new ChangeSet();
+            pendingRequests = 0;
+            fullSavePending = false;
+            flushScheduled = false;
+        }
+
+        try {
+            if (fullSave) {
+                delegate.saveNotes(notes);
+            } else if (!changes.isEmpty()) {
+                delegate.saveChanges(notes, changes);
+            }
+        } catch (IOException | RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            requeue(changes, notes, fullSave);
+            throw e;
+        }
+
+        long latency = System.nanoTime() - dirtySince;
+        flushCount.incrementAndGet();
+        changesWritten.addAndGet(changes.size());
+        coalescedWrites.addAndGet(requests - 1);
+        totalFlushLatencyNanos.addAndGet(latency);
+        lastFlushLatencyNanos.set(latency);
+        maxFlushLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    // Put a failed batch back in front of anything queued since, to retry on the next flush
+    private void requeue(ChangeSet changes, NoteLL notes, boolean fullSave) {
+        synchronized (pendingLock) {
+            ChangeSet merged = new ChangeSet();
+            merged.addAll(changes);
+            merged.addAll(pendingChanges);
+            pendingChanges = merged;
+            fullSavePending |= fullSave;
+            if (pendingNotes == null) {
+                pendingNotes = notes;
+            }
+            // markDirty counts the retry as a new request
+            markDirty(pendingNotes);
+        }
+    }
+}
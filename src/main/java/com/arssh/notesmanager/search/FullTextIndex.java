@@ -0,0 +1,507 @@
+package com.arssh.notesmanager.search;
+
+import com.arssh.notesmanager.Note;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+    In-memory inverted index over note title, text and AI summary, ranked with BM25.
+
+    Every indexed version of a note gets a new document number, and postings are appended in
+    document order. Updating a note adds a new document and then deletes the old one; deleted
+    documents are skipped at query time and squeezed out once they make up a third of the index.
+
+    One writer at a time changes the index while searches run without locking:
+        - a posting list writes an entry before its size counts it, and copies a full array
+          rather than changing it, so a reader that reads the size first finds that many
+          entries in whichever arrays it then sees
+        - a document's note id is set only after its postings and length are in place, and
+          cleared first when it is deleted, so a search skips half-added and deleted documents
+        - compaction and growing the document table build a new State and swap it in; a search
+          keeps the State it started with
+    A search may still count a document deleted while it runs, as if it had started earlier.
+
+    The index can be written to a single segment file stamped with the note store's version and
+    read back on the next start, so notes don't have to be re-tokenized when nothing changed.
+*/
+public class FullTextIndex {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int TITLE_WEIGHT = 3;
+
+    private static final int MAGIC = 0x4E4D5358;
+    private static final int FORMAT_VERSION = 1;
+
+    private volatile State state;
+
+    // Writer-only bookkeeping
+    private int docCount;
+    private int deletedDocs;
+    private final Map<Integer, Integer> docByNoteId;
+
+    private volatile int liveDocs;
+    private volatile long totalLength;
+
+    // Score accumulator reused between queries, one per thread so searches can run side by side
+    private final ThreadLocal<Scratch> scratchByThread;
+
+    public FullTextIndex() {
+        this.state = new State(16, new ConcurrentHashMap<>());
+        this.docByNoteId = new HashMap<>();
+        this.scratchByThread = ThreadLocal.withInitial(() -> new Scratch(0));
+    }
+
+    // Re-adding a note puts in its new document before deleting the old one, so it never drops out of searches
+    public void add(Note note) {
+        Map<String, Integer> termFreqs = new HashMap<>();
+        for (String term : Tokenizer.tokenize(note.getTitle())) {
+            termFreqs.merge(term, TITLE_WEIGHT, Integer::sum);
+        }
+        try {
+            for (String term : Tokenizer.tokenize(note.getMainText())) {
+                termFreqs.merge(term, 1, Integer::sum);
+            }
+            for (String term : Tokenizer.tokenize(note.getAiSummary())) {
+                termFreqs.merge(term, 1, Integer::sum);
+            }
+        } catch (UncheckedIOException e) {
+            // Text the store can't read is left out; the note can still be found by its title
+            System.err.println("Error indexing note " + note.getId() + ": " + e.getMessage());
+        }
+
+        ensureCapacity(docCount + 1);
+        State current = state;
+        int doc = docCount++;
+        Postings[] docTerms = new Postings[termFreqs.size()];
+        int length = 0;
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : termFreqs.entrySet()) {
+            Postings list = current.postings.get(entry.getKey());
+            if (list == null) {
+                list = new Postings(2);
+                current.postings.put(entry.getKey(), list);
+            }
+            list.append(doc, entry.getValue());
+            list.liveDocs++;
+            docTerms[i++] = list;
+            length += entry.getValue();
+        }
+        current.docPostings[doc] = docTerms;
+        current.docLengths[doc] = length;
+        // Searches count the document from here on
+        current.docNoteIds.set(doc, note.getId());
+        Integer previous = docByNoteId.put(note.getId(), doc);
+
+        totalLength += length;
+        liveDocs++;
+        if (previous != null) {
+            deleteDocument(previous);
+        }
+    }
+
+    public void update(Note note) {
+        add(note);
+    }
+
+    public void remove(int noteId) {
+        Integer doc = docByNoteId.remove(noteId);
+        if (doc != null) {
+            deleteDocument(doc);
+        }
+    }
+
+    private void deleteDocument(int doc) {
+        State current = state;
+        current.docNoteIds.set(doc, 0);
+        for (Postings list : current.docPostings[doc]) {
+            list.liveDocs--;
+        }
+        current.docPostings[doc] = null;
+        totalLength -= current.docLengths[doc];
+        liveDocs--;
+        deletedDocs++;
+
+        if (deletedDocs > 1024 && deletedDocs * 3 > docCount) {
+            State compacted = compacted();
+            docCount -= deletedDocs;
+            deletedDocs = 0;
+            for (int d = 0; d < docCount; d++) {
+                docByNoteId.put(compacted.docNoteIds.get(d), d);
+            }
+            state = compacted;
+        }
+    }
+
+    public void rebuild(Iterable<Note> notes) {
+        clear();
+        for (Note note : notes) {
+            add(note);
+        }
+    }
+
+    public int size() {
+        return liveDocs;
+    }
+
+    // Top `limit` notes for a free-text query, best first
+    public List<SearchResult> search(String query, int limit) {
+        Set<String> terms = new LinkedHashSet<>(Tokenizer.tokenize(query));
+        State current = state;
+        int live = liveDocs;
+        if (terms.isEmpty() || live <= 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        AtomicIntegerArray docNoteIds = current.docNoteIds;
+        int capacity = docNoteIds.length();
+        if (scratchByThread.get().scores.length < capacity) {
+            scratchByThread.set(new Scratch(capacity));
+        }
+        double[] scratch = scratchByThread.get().scores;
+        int[] noteIds = scratchByThread.get().noteIds;
+        double avgLength = (double) totalLength / live;
+        List<Integer> touched = new ArrayList<>();
+
+        for (String term : terms) {
+            Postings list = current.postings.get(term);
+            int docsWithTerm = list == null ? 0 : list.liveDocs;
+            if (docsWithTerm <= 0) {
+                continue;
+            }
+
+            double idf = Math.log(1 + (live - docsWithTerm + 0.5) / (docsWithTerm + 0.5));
+            int size = list.size;
+            int[] docs = list.docs;
+            int[] freqs = list.freqs;
+            for (int i = 0; i < size; i++) {
+                int doc = docs[i];
+                // Documents past the table were added after this search took its State
+                int noteId = doc < capacity ? docNoteIds.get(doc) : 0;
+                if (noteId == 0) {
+                    continue;
+                }
+                int tf = freqs[i];
+                double norm = K1 * (1 - B + B * current.docLengths[doc] / avgLength);
+                if (scratch[doc] == 0) {
+                    touched.add(doc);
+                    noteIds[doc] = noteId;
+                }
+                scratch[doc] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+
+        // Keep the best `limit` documents in a min-heap
+        PriorityQueue<Integer> best = new PriorityQueue<>(Math.min(limit, touched.size()) + 1,
+                (a, b) -> Double.compare(scratch[a], scratch[b]));
+        for (int doc : touched) {
+            best.offer(doc);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        int[] bestFirst = new int[best.size()];
+        for (int i = bestFirst.length - 1; i >= 0; i--) {
+            bestFirst[i] = best.poll();
+        }
+        // A note re-indexed while the search ran may have been counted under both versions; list it once
+        List<SearchResult> results = new ArrayList<>(bestFirst.length);
+        Set<Integer> listed = new HashSet<>();
+        for (int doc : bestFirst) {
+            if (listed.add(noteIds[doc])) {
+                results.add(new SearchResult(noteIds[doc], scratch[doc]));
+            }
+        }
+        for (int doc : touched) {
+            scratch[doc] = 0;
+        }
+        return results;
+    }
+
+    // Write the index as one segment, stamped with the store version it was built from. Deleted
+    // documents are left out of the file; the index itself isn't changed.
+    public void save(File file, long storeVersion) throws IOException {
+        State saved = deletedDocs == 0 ? state : compacted();
+        int savedDocs = docCount - deletedDocs;
+
+        File parentDir = file.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(storeVersion);
+
+            out.writeInt(savedDocs);
+            for (int doc = 0; doc < savedDocs; doc++) {
+                writeVarInt(out, saved.docNoteIds.get(doc));
+                writeVarInt(out, saved.docLengths[doc]);
+            }
+
+            out.writeInt(saved.postings.size());
+            for (Map.Entry<String, Postings> entry : saved.postings.entrySet()) {
+                Postings list = entry.getValue();
+                int size = list.size;
+                out.writeUTF(entry.getKey());
+                writeVarInt(out, size);
+                int previous = 0;
+                for (int i = 0; i < size; i++) {
+                    writeVarInt(out, list.docs[i] - previous);
+                    writeVarInt(out, list.freqs[i]);
+                    previous = list.docs[i];
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Read a saved segment; returns null if it is missing, unreadable or from another store version
+    public static FullTextIndex load(File file, long storeVersion) {
+        if (storeVersion == 0 || !file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != storeVersion) {
+                return null;
+            }
+
+            int docCount = in.readInt();
+            State loaded = new State(Math.max(docCount, 16), new ConcurrentHashMap<>());
+            FullTextIndex index = new FullTextIndex();
+            long totalLength = 0;
+            for (int doc = 0; doc < docCount; doc++) {
+                int noteId = readVarInt(in);
+                int length = readVarInt(in);
+                loaded.docNoteIds.set(doc, noteId);
+                loaded.docLengths[doc] = length;
+                index.docByNoteId.put(noteId, doc);
+                totalLength += length;
+            }
+
+            int[] termsPerDoc = new int[docCount];
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readUTF();
+                int size = readVarInt(in);
+                Postings list = new Postings(size);
+                int doc = 0;
+                for (int i = 0; i < size; i++) {
+                    doc += readVarInt(in);
+                    list.append(doc, readVarInt(in));
+                    termsPerDoc[doc]++;
+                }
+                list.liveDocs = size;
+                loaded.postings.put(term, list);
+            }
+
+            // Rebuild document -> postings links used for deletes
+            for (int doc = 0; doc < docCount; doc++) {
+                loaded.docPostings[doc] = new Postings[termsPerDoc[doc]];
+            }
+            int[] filled = new int[docCount];
+            for (Postings list : loaded.postings.values()) {
+                for (int i = 0; i < list.size; i++) {
+                    int doc = list.docs[i];
+                    loaded.docPostings[doc][filled[doc]++] = list;
+                }
+            }
+
+            index.state = loaded;
+            index.docCount = docCount;
+            index.liveDocs = docCount;
+            index.totalLength = totalLength;
+            return index;
+        } catch (EOFException | IndexOutOfBoundsException e) {
+            System.err.println("Search index is truncated, rebuilding");
+            return null;
+        } catch (IOException e) {
+            System.err.println("Error reading search index: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Grow the document table by swapping in a larger copy; the posting lists are shared
+    private void ensureCapacity(int capacity) {
+        State current = state;
+        if (capacity > current.docNoteIds.length()) {
+            int newLength = Math.max(capacity, current.docNoteIds.length() * 2);
+            State grown = new State(newLength, current.postings);
+            for (int doc = 0; doc < docCount; doc++) {
+                grown.docNoteIds.set(doc, current.docNoteIds.get(doc));
+            }
+            System.arraycopy(current.docLengths, 0, grown.docLengths, 0, docCount);
+            System.arraycopy(current.docPostings, 0, grown.docPostings, 0, docCount);
+            state = grown;
+        }
+    }
+
+    // Forget every note, e.g. before adding them back one at a time
+    public void clear() {
+        state = new State(16, new ConcurrentHashMap<>());
+        docCount = 0;
+        deletedDocs = 0;
+        liveDocs = 0;
+        totalLength = 0;
+        docByNoteId.clear();
+    }
+
+    // Copy of the current State with live documents renumbered densely and postings of deleted ones dropped
+    private State compacted() {
+        State current = state;
+        int[] remap = new int[docCount];
+        State result = new State(Math.max(docCount - deletedDocs, 16), new ConcurrentHashMap<>());
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            int noteId = current.docNoteIds.get(doc);
+            if (noteId != 0) {
+                remap[doc] = next;
+                result.docNoteIds.set(next, noteId);
+                result.docLengths[next] = current.docLengths[doc];
+                next++;
+            } else {
+                remap[doc] = -1;
+            }
+        }
+
+        Map<Postings, Postings> copies = new IdentityHashMap<>();
+        current.postings.forEach((term, list) -> {
+            Postings retained = list.retain(remap);
+            if (retained.size > 0) {
+                result.postings.put(term, retained);
+                copies.put(list, retained);
+            }
+        });
+        for (int doc = 0; doc < docCount; doc++) {
+            if (remap[doc] >= 0) {
+                Postings[] docTerms = current.docPostings[doc];
+                Postings[] renumbered = new Postings[docTerms.length];
+                for (int i = 0; i < docTerms.length; i++) {
+                    renumbered[i] = copies.get(docTerms[i]);
+                }
+                result.docPostings[remap[doc]] = renumbered;
+            }
+        }
+        return result;
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // The document table and the posting lists it numbers documents for
+    private static final class State {
+        // Per-document, indexed by document number. A note id of 0 marks a deleted or unfinished document.
+        final AtomicIntegerArray docNoteIds;
+        final int[] docLengths;
+        // Only used by the writer, to find a document's postings when it is deleted
+        final Postings[][] docPostings;
+        final Map<String, Postings> postings;
+
+        State(int capacity, Map<String, Postings> postings) {
+            this.docNoteIds = new AtomicIntegerArray(capacity);
+            this.docLengths = new int[capacity];
+            this.docPostings = new Postings[capacity][];
+            this.postings = postings;
+        }
+    }
+
+    // Documents containing one term, in increasing document order
+    private static final class Postings {
+        int[] docs;
+        int[] freqs;
+        volatile int size;
+        volatile int liveDocs;
+
+        Postings(int capacity) {
+            int length = Math.max(capacity, 1);
+            this.docs = new int[length];
+            this.freqs = new int[length];
+        }
+
+        void append(int doc, int freq) {
+            int n = size;
+            if (n == docs.length) {
+                docs = Arrays.copyOf(docs, n * 2);
+                freqs = Arrays.copyOf(freqs, n * 2);
+            }
+            docs[n] = doc;
+            freqs[n] = freq;
+            size = n + 1;
+        }
+
+        // New list with the documents renumbered by `remap`, dropping those mapped to -1
+        Postings retain(int[] remap) {
+            int count = size;
+            Postings result = new Postings(count);
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                int doc = remap[docs[i]];
+                if (doc >= 0) {
+                    result.docs[n] = doc;
+                    result.freqs[n] = freqs[i];
+                    n++;
+                }
+            }
+            result.size = n;
+            result.liveDocs = n;
+            return result;
+        }
+    }
+
+    // Per-document score and note id of the documents a search has touched
+    private static final class Scratch {
+        final double[] scores;
+        final int[] noteIds;
+
+        Scratch(int capacity) {
+            this.scores = new double[capacity];
+            this.noteIds = new int[capacity];
+        }
+    }
+}
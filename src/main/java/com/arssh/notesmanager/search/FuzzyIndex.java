@@ -0,0 +1,457 @@
+package com.arssh.notesmanager.search;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.structures.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Typo-tolerant lookup over the words of note titles and tags.
+
+    Words are kept once in a term dictionary, each with a bitmap of the notes that use it.
+    A second index maps every trigram of a padded term ("\0\0word\0\0") to the terms containing it.
+
+    A query word is matched in two steps:
+        1. candidates - terms sharing enough trigrams with the query word. One edit touches at
+           most 3 trigrams, so a term within k edits shares at least (trigrams - 3k) of them.
+        2. verify     - each candidate is run through a Levenshtein automaton for the query word.
+
+    The allowed edits grow with word length (0 up to 2 letters, 1 up to 5, then 2) so short
+    words don't match half the dictionary.
+
+    One writer at a time changes the index while readers search it without locking. A term's
+    note bitmap is never changed once published; a change puts in a new Term. Trigram lists are
+    only appended to, and a dropped term's id is left in them and skipped, never reused. Once
+    dropped ids make up half of all ids, the dictionary is renumbered into a new State. A note
+    whose words stay the same is left where it is, so it never drops out of a search while it
+    is being re-indexed. Between beginBatch and endBatch a term's bitmap is copied the first time
+    the batch touches it and changed in place after that, and the new Terms are put in at the end.
+*/
+public class FuzzyIndex {
+    private static final char PAD = '\0';
+
+    private volatile State state;
+    // Only used by the writer
+    private final Map<Integer, int[]> noteTerms;
+    private int droppedTerms;
+    // Term id -> notes, copied and changed by the current batch until endBatch; null outside a batch
+    private Map<Integer, RoaringBitmap> batchNotes;
+
+    // Trigram hit counts reused between queries, one per thread so lookups can run side by side
+    private final ThreadLocal<int[]> countsByThread;
+
+    public FuzzyIndex() {
+        this.state = new State(16);
+        this.noteTerms = new HashMap<>();
+        this.countsByThread = ThreadLocal.withInitial(() -> new int[0]);
+    }
+
+    public void add(Note note) {
+        int noteId = note.getId();
+        Set<String> words = wordsOf(note);
+        State current = state;
+
+        // Drop the note from the words it no longer has before filing it under new ones
+        Set<String> kept = new HashSet<>();
+        int[] old = noteTerms.remove(noteId);
+        if (old != null) {
+            for (int termId : old) {
+                String word = current.terms.get(termId).word;
+                if (words.contains(word)) {
+                    kept.add(word);
+                } else {
+                    removeNote(current, termId, noteId);
+                }
+            }
+        }
+
+        if (!words.isEmpty()) {
+            int[] ids = new int[words.size()];
+            int i = 0;
+            for (String word : words) {
+                int termId = termId(current, word);
+                if (!kept.contains(word)) {
+                    addNote(current, termId, noteId);
+                }
+                ids[i++] = termId;
+            }
+            noteTerms.put(noteId, ids);
+        }
+        compactIfNeeded();
+    }
+
+    public void update(Note note) {
+        add(note);
+    }
+
+    public void remove(int noteId) {
+        int[] ids = noteTerms.remove(noteId);
+        if (ids == null) {
+            return;
+        }
+        State current = state;
+        for (int termId : ids) {
+            removeNote(current, termId, noteId);
+        }
+        compactIfNeeded();
+    }
+
+    // Hold back the new Terms of the changes that follow until endBatch
+    public void beginBatch() {
+        if (batchNotes == null) {
+            batchNotes = new HashMap<>();
+        }
+    }
+
+    public void endBatch() {
+        Map<Integer, RoaringBitmap> changed = batchNotes;
+        batchNotes = null;
+        if (changed == null) {
+            return;
+        }
+        State current = state;
+        changed.forEach((termId, notes) -> {
+            Term term = current.terms.get(termId);
+            if (notes.isEmpty()) {
+                dropTerm(current, termId, term);
+            } else {
+                current.terms.put(termId, new Term(term.word, notes));
+            }
+        });
+        compactIfNeeded();
+    }
+
+    // Fill a new State and swap it in, rather than re-adding note by note and copying bitmaps each time
+    public void rebuild(Iterable<Note> notes) {
+        batchNotes = null;
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> words = new ArrayList<>();
+        List<RoaringBitmap> notesOf = new ArrayList<>();
+        noteTerms.clear();
+        for (Note note : notes) {
+            Set<String> noteWords = wordsOf(note);
+            if (noteWords.isEmpty()) {
+                continue;
+            }
+            int[] termIds = new int[noteWords.size()];
+            int i = 0;
+            for (String word : noteWords) {
+                Integer termId = ids.get(word);
+                if (termId == null) {
+                    termId = words.size();
+                    ids.put(word, termId);
+                    words.add(word);
+                    notesOf.add(new RoaringBitmap());
+                }
+                notesOf.get(termId).add(note.getId());
+                termIds[i++] = termId;
+            }
+            noteTerms.put(note.getId(), termIds);
+        }
+        install(words, notesOf);
+    }
+
+    public int termCount() {
+        return state.termIds.size();
+    }
+
+    /*
+        Notes whose title or tags contain words close to the query words, best first.
+        Each query word adds 1 / (1 + distance) for its closest match in a note, so exact
+        matches beat typos and notes matching more words rank higher. Ties go to newer notes.
+    */
+    public List<SearchResult> search(String query, int maxEdits, int limit) {
+        Set<String> words = new LinkedHashSet<>(Tokenizer.tokenize(query));
+        if (words.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        State current = state;
+        Map<Integer, Double> scores = new HashMap<>();
+        for (String word : words) {
+            Map<Integer, Integer> closest = new HashMap<>();
+            matchTerms(current, word, maxEdits).forEach((term, distance) ->
+                    term.notes.forEach(noteId -> closest.merge(noteId, distance, Math::min)));
+            closest.forEach((noteId, distance) ->
+                    scores.merge(noteId, 1.0 / (1 + distance), Double::sum));
+        }
+
+        List<SearchResult> results = new ArrayList<>(scores.size());
+        scores.forEach((noteId, score) -> results.add(new SearchResult(noteId, score)));
+        results.sort((a, b) -> {
+            int byScore = Double.compare(b.getScore(), a.getScore());
+            return byScore != 0 ? byScore : Integer.compare(b.getNoteId(), a.getNoteId());
+        });
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    // Dictionary terms within the allowed distance of `word`, with their distance
+    private Map<Term, Integer> matchTerms(State current, String word, int maxEdits) {
+        Map<Term, Integer> matches = new HashMap<>();
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(word, Math.min(maxEdits, editsFor(word)));
+        int k = automaton.getMaxEdits();
+
+        if (k == 0) {
+            Integer termId = current.termIds.get(word);
+            Term term = termId == null ? null : current.terms.get(termId);
+            if (term != null) {
+                matches.put(term, 0);
+            }
+            return matches;
+        }
+
+        long[] grams = trigramsOf(word);
+        int needed = grams.length - 3 * k;
+        int termLimit = current.termLimit;
+        if (countsByThread.get().length < termLimit) {
+            countsByThread.set(new int[termLimit]);
+        }
+        int[] counts = countsByThread.get();
+
+        // Count shared trigrams per term, remembering which terms reached the threshold. Terms
+        // added after the counts were sized are left out of this search.
+        List<Integer> candidates = new ArrayList<>();
+        List<Integer> touched = new ArrayList<>();
+        if (needed <= 0) {
+            // Words made of repeated letters have too few distinct trigrams to filter on
+            candidates.addAll(current.terms.keySet());
+            grams = new long[0];
+        }
+        for (long gram : grams) {
+            TermList termsWithGram = current.trigrams.get(gram);
+            if (termsWithGram == null) {
+                continue;
+            }
+            int size = termsWithGram.size;
+            int[] ids = termsWithGram.ids;
+            for (int i = 0; i < size; i++) {
+                int termId = ids[i];
+                if (termId >= counts.length) {
+                    continue;
+                }
+                if (counts[termId] == 0) {
+                    touched.add(termId);
+                }
+                if (++counts[termId] == needed) {
+                    candidates.add(termId);
+                }
+            }
+        }
+        for (int termId : touched) {
+            counts[termId] = 0;
+        }
+
+        // Dropped terms are still in the trigram lists; they are gone from the dictionary
+        for (int termId : candidates) {
+            Term term = current.terms.get(termId);
+            if (term == null) {
+                continue;
+            }
+            int distance = automaton.distance(term.word);
+            if (distance >= 0) {
+                matches.put(term, distance);
+            }
+        }
+        return matches;
+    }
+
+    private static Set<String> wordsOf(Note note) {
+        Set<String> words = new LinkedHashSet<>(Tokenizer.tokenize(note.getTitle()));
+        for (String tag : note.getTags()) {
+            words.addAll(Tokenizer.tokenize(tag));
+        }
+        return words;
+    }
+
+    private static int editsFor(String word) {
+        if (word.length() <= 2) {
+            return 0;
+        }
+        return word.length() <= 5 ? 1 : 2;
+    }
+
+    // Id of the term for `word`, added with no notes if it is new
+    private static int termId(State current, String word) {
+        Integer existing = current.termIds.get(word);
+        if (existing != null) {
+            return existing;
+        }
+
+        // The term is in place before anything leads a reader to its id
+        int termId = current.termLimit;
+        current.terms.put(termId, new Term(word, new RoaringBitmap()));
+        current.termLimit = termId + 1;
+        current.termIds.put(word, termId);
+        for (long gram : trigramsOf(word)) {
+            TermList termsWithGram = current.trigrams.get(gram);
+            if (termsWithGram == null) {
+                current.trigrams.put(gram, new TermList(new int[] { termId }, 1));
+            } else {
+                termsWithGram.append(termId);
+            }
+        }
+        return termId;
+    }
+
+    private void addNote(State current, int termId, int noteId) {
+        if (batchNotes != null) {
+            batchNotes(current, termId).add(noteId);
+            return;
+        }
+        Term term = current.terms.get(termId);
+        current.terms.put(termId, new Term(term.word, term.notes.with(noteId)));
+    }
+
+    // In a batch, a term left without notes stays until endBatch, in case a later change uses it
+    private void removeNote(State current, int termId, int noteId) {
+        if (batchNotes != null) {
+            batchNotes(current, termId).remove(noteId);
+            return;
+        }
+        Term term = current.terms.get(termId);
+        RoaringBitmap left = term.notes.without(noteId);
+        if (left.isEmpty()) {
+            dropTerm(current, termId, term);
+        } else {
+            current.terms.put(termId, new Term(term.word, left));
+        }
+    }
+
+    // The batch's own copy of a term's notes
+    private RoaringBitmap batchNotes(State current, int termId) {
+        return batchNotes.computeIfAbsent(termId, id -> current.terms.get(id).notes.copy());
+    }
+
+    private void dropTerm(State current, int termId, Term term) {
+        current.termIds.remove(term.word);
+        current.terms.remove(termId);
+        droppedTerms++;
+    }
+
+    // Renumber the live terms once dropped ones make up half of the ids handed out
+    private void compactIfNeeded() {
+        State current = state;
+        if (batchNotes != null || droppedTerms <= 1024 || droppedTerms * 2 <= current.termLimit) {
+            return;
+        }
+        int[] renumbered = new int[current.termLimit];
+        List<String> words = new ArrayList<>();
+        List<RoaringBitmap> notesOf = new ArrayList<>();
+        for (int termId = 0; termId < current.termLimit; termId++) {
+            Term term = current.terms.get(termId);
+            if (term != null) {
+                renumbered[termId] = words.size();
+                words.add(term.word);
+                notesOf.add(term.notes);
+            }
+        }
+        for (int[] ids : noteTerms.values()) {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = renumbered[ids[i]];
+            }
+        }
+        install(words, notesOf);
+    }
+
+    // Swap in a new State where term id i is words[i], used by the notes in notesOf[i]
+    private void install(List<String> words, List<RoaringBitmap> notesOf) {
+        int count = words.size();
+        State built = new State(count);
+        Map<Long, int[]> gramTerms = new HashMap<>();
+        Map<Long, Integer> gramSizes = new HashMap<>();
+        for (int termId = 0; termId < count; termId++) {
+            String word = words.get(termId);
+            built.termIds.put(word, termId);
+            built.terms.put(termId, new Term(word, notesOf.get(termId)));
+            for (long gram : trigramsOf(word)) {
+                int size = gramSizes.getOrDefault(gram, 0);
+                int[] ids = gramTerms.get(gram);
+                if (ids == null || size == ids.length) {
+                    ids = ids == null ? new int[4] : Arrays.copyOf(ids, size * 2);
+                    gramTerms.put(gram, ids);
+                }
+                ids[size] = termId;
+                gramSizes.put(gram, size + 1);
+            }
+        }
+        gramTerms.forEach((gram, ids) -> built.trigrams.put(gram, new TermList(ids, gramSizes.get(gram))));
+        built.termLimit = count;
+        droppedTerms = 0;
+        state = built;
+    }
+
+    // Distinct trigrams of the padded word, each packed into a long
+    private static long[] trigramsOf(String word) {
+        String padded = "" + PAD + PAD + word + PAD + PAD;
+        long[] grams = new long[padded.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int n = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[n++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, n);
+    }
+
+    // The term dictionary and trigram lists, numbered with the same term ids
+    private static final class State {
+        final Map<String, Integer> termIds;
+        final Map<Integer, Term> terms;
+        final Map<Long, TermList> trigrams;
+        // Term ids below this have been handed out
+        volatile int termLimit;
+
+        State(int capacity) {
+            this.termIds = new ConcurrentHashMap<>(capacity);
+            this.terms = new ConcurrentHashMap<>(capacity);
+            this.trigrams = new ConcurrentHashMap<>();
+        }
+    }
+
+    // A dictionary word and the notes using it; replaced, never changed, when those notes change
+    private static final class Term {
+        final String word;
+        final RoaringBitmap notes;
+
+        Term(String word, RoaringBitmap notes) {
+            this.word = word;
+            this.notes = notes;
+        }
+    }
+
+    /*
+        Ids of the terms containing one trigram, appended to like FullTextIndex postings: an id
+        is written before `size` counts it, and a full array is copied rather than changed, so a
+        reader that reads `size` first finds its first `size` ids in whichever array it then sees.
+    */
+    private static final class TermList {
+        int[] ids;
+        volatile int size;
+
+        TermList(int[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+
+        void append(int termId) {
+            int n = size;
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(n * 2, 2));
+            }
+            ids[n] = termId;
+            size = n + 1;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.arssh.notesmanager.search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Levenshtein automaton for one word: accepts every string within `maxEdits` insertions,
+    deletions or substitutions of it.
+
+    The NFA has a state (i, e) for "matched i characters of the word using e edits". For each
+    edit count the active states fit in one long (words are at most 40 characters), so feeding
+    a character updates all states with a few shifts and ORs, and a term is rejected as soon as
+    every state dies.
+*/
+public class LevenshteinAutomaton {
+    public static final int MAX_EDITS = 2;
+
+    private final int length;
+    private final int maxEdits;
+    private final long acceptBit;
+    private final long stateMask;
+    // Bit i is set when word[i] == c
+    private final Map<Character, Long> matchMasks;
+
+    public LevenshteinAutomaton(String word, int maxEdits) {
+        if (word.length() > 62) {
+            throw new IllegalArgumentException("Word too long for automaton: " + word.length());
+        }
+        this.length = word.length();
+        this.maxEdits = Math.max(0, Math.min(maxEdits, MAX_EDITS));
+        this.acceptBit = 1L << length;
+        this.stateMask = (acceptBit << 1) - 1;
+        this.matchMasks = new HashMap<>();
+        for (int i = 0; i < length; i++) {
+            matchMasks.merge(word.charAt(i), 1L << i, (a, b) -> a | b);
+        }
+    }
+
+    public int getMaxEdits() {
+        return maxEdits;
+    }
+
+    // Edit distance to `term`, or -1 if it is more than maxEdits
+    public int distance(String term) {
+        if (Math.abs(term.length() - length) > maxEdits) {
+            return -1;
+        }
+
+        long[] states = new long[maxEdits + 1];
+        for (int e = 0; e <= maxEdits; e++) {
+            // Start state plus the states reached by deleting the first e characters of the word
+            states[e] = ((1L << (e + 1)) - 1) & stateMask;
+        }
+
+        for (int i = 0; i < term.length(); i++) {
+            long match = matchMasks.getOrDefault(term.charAt(i), 0L);
+            long previous = states[0];
+            states[0] = (states[0] & match) << 1;
+            long alive = states[0];
+
+            for (int e = 1; e <= maxEdits; e++) {
+                long current = states[e];
+                states[e] = (((current & match) << 1)   // match
+                        | previous                       // insertion
+                        | (previous << 1)                // substitution
+                        | (states[e - 1] << 1))          // deletion
+                        & stateMask;
+                previous = current;
+                alive |= states[e];
+            }
+
+            if (alive == 0) {
+                return -1;
+            }
+        }
+
+        for (int e = 0; e <= maxEdits; e++) {
+            if ((states[e] & acceptBit) != 0) {
+                return e;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,20 @@
+package com.arssh.notesmanager.search;
+
+// A matching note id and its relevance score, higher is better
+public class SearchResult {
+    private final int noteId;
+    private final double score;
+
+    public SearchResult(int noteId, double score) {
+        this.noteId = noteId;
+        this.score = score;
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,402 @@
+package com.arssh.notesmanager.search;
+
+import com.arssh.notesmanager.Note;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/*
+    Radix trie over case-folded note titles for type-ahead completion.
+
+    Each edge holds a run of characters instead of a single one, so a title costs roughly one
+    node plus its label. Notes are stored at the node where their title ends as a rank:
+        (reminder priority << 32) | note id
+    Notes with an active, higher-priority reminder rank first, then newer notes (ids only grow).
+
+    Every node also keeps the best rank found below it. Completion walks the prefix, then
+    expands the subtree best-first and stops after k notes, so it never visits the whole
+    subtree of a short prefix.
+
+    Nodes are never changed once built: a change copies the nodes on the path to the title and
+    publishes the new root, so completions run without locking while one writer at a time
+    changes the trie, and each sees the whole trie as of one root.
+*/
+public class TitleTrie {
+    private static final long NONE = Long.MIN_VALUE;
+    private static final Node EMPTY = new Node(new char[0], null, null, NONE);
+
+    private volatile Node root;
+    private volatile int size;
+
+    public TitleTrie() {
+        this.root = EMPTY;
+    }
+
+    // Rank a note is stored under; pass the same value to remove()
+    public static long rank(Note note) {
+        int priority = note.getReminder() != null && note.getReminder().isActive()
+                ? note.getReminder().getPriority() : 0;
+        return ((long) priority << 32) | (note.getId() & 0xFFFFFFFFL);
+    }
+
+    public void add(String title, long rank) {
+        root = insert(root, fold(title), 0, rank);
+        size++;
+    }
+
+    public boolean remove(String title, long rank) {
+        Node removed = delete(root, fold(title), 0, rank);
+        if (removed == root) {
+            return false;
+        }
+        root = removed == null ? EMPTY : removed;
+        size--;
+        return true;
+    }
+
+    // Move a note to a new title or rank in one step, so completions see it under one or the other
+    public void replace(String oldTitle, long oldRank, String newTitle, long newRank) {
+        Node removed = delete(root, fold(oldTitle), 0, oldRank);
+        boolean found = removed != root;
+        root = insert(removed == null ? EMPTY : removed, fold(newTitle), 0, newRank);
+        if (!found) {
+            size++;
+        }
+    }
+
+    // Ids of the k best-ranked notes whose title starts with `prefix`
+    public int[] complete(String prefix, int k) {
+        if (k <= 0) {
+            return new int[0];
+        }
+
+        String key = fold(prefix);
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int c = node.findChild(key.charAt(i));
+            if (c < 0) {
+                return new int[0];
+            }
+            Node child = node.children[c];
+            int common = commonLength(child.label, key, i);
+            if (common < child.label.length && i + common < key.length()) {
+                return new int[0];
+            }
+            i += common;
+            node = child;
+        }
+
+        // Best-first expansion: nodes are queued by the best rank below them, entries by their own rank
+        int[] ids = new int[Math.min(k, 16)];
+        int found = 0;
+        PriorityQueue<Object> queue = new PriorityQueue<>((a, b) -> Long.compare(rankOf(b), rankOf(a)));
+        queue.add(node);
+        while (found < k && !queue.isEmpty()) {
+            Object next = queue.poll();
+            if (next instanceof Long) {
+                if (found == ids.length) {
+                    ids = Arrays.copyOf(ids, Math.min(k, ids.length * 2));
+                }
+                ids[found++] = (int) (long) (Long) next;
+                continue;
+            }
+            Node current = (Node) next;
+            if (current.entries != null) {
+                for (long rank : current.entries) {
+                    queue.add(rank);
+                }
+            }
+            if (current.children != null) {
+                queue.addAll(Arrays.asList(current.children));
+            }
+        }
+        return found == ids.length ? ids : Arrays.copyOf(ids, found);
+    }
+
+    // Replace the contents with the titles of `notes`, publishing the new trie once it is complete
+    public void rebuild(Iterable<Note> notes) {
+        Node built = EMPTY;
+        int count = 0;
+        for (Note note : notes) {
+            built = insert(built, fold(note.getTitle()), 0, rank(note));
+            count++;
+        }
+        root = built;
+        size = count;
+    }
+
+    public void clear() {
+        root = EMPTY;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Write the trie node by node (pre-order) so readFrom can restore it without re-inserting titles
+    public void writeTo(DataOutput out) throws IOException {
+        writeNode(out, root);
+    }
+
+    // Replace the contents with a trie written by writeTo
+    public void readFrom(ByteBuffer in) {
+        int[] count = {0};
+        Node read = readNode(in, count);
+        root = read;
+        size = count[0];
+    }
+
+    private static void writeNode(DataOutput out, Node node) throws IOException {
+        out.writeInt(node.label.length);
+        for (char c : node.label) {
+            out.writeChar(c);
+        }
+        out.writeLong(node.best);
+        out.writeInt(node.entries == null ? 0 : node.entries.length);
+        if (node.entries != null) {
+            for (long rank : node.entries) {
+                out.writeLong(rank);
+            }
+        }
+        out.writeInt(node.children == null ? 0 : node.children.length);
+        if (node.children != null) {
+            for (Node child : node.children) {
+                writeNode(out, child);
+            }
+        }
+    }
+
+    private static Node readNode(ByteBuffer in, int[] count) {
+        char[] label = new char[in.getInt()];
+        for (int i = 0; i < label.length; i++) {
+            label[i] = in.getChar();
+        }
+        long best = in.getLong();
+        long[] entries = null;
+        int entryCount = in.getInt();
+        if (entryCount > 0) {
+            entries = new long[entryCount];
+            for (int i = 0; i < entryCount; i++) {
+                entries[i] = in.getLong();
+            }
+            count[0] += entryCount;
+        }
+        Node[] children = null;
+        int childCount = in.getInt();
+        if (childCount > 0) {
+            children = new Node[childCount];
+            for (int i = 0; i < childCount; i++) {
+                children[i] = readNode(in, count);
+            }
+        }
+        return new Node(label, children, entries, best);
+    }
+
+    // Copy of `node`, whose label matched key up to `i`, with the rank filed under the rest of key
+    private static Node insert(Node node, String key, int i, long rank) {
+        if (i == key.length()) {
+            return node.withEntries(addRank(node.entries, rank));
+        }
+
+        int c = node.findChild(key.charAt(i));
+        if (c < 0) {
+            Node leaf = new Node(key.substring(i).toCharArray(), null, new long[] { rank }, rank);
+            return node.withChildren(insertChild(node.children, leaf));
+        }
+
+        Node child = node.children[c];
+        int common = commonLength(child.label, key, i);
+        if (common < child.label.length) {
+            // Split the edge where the new title branches off
+            Node tail = new Node(Arrays.copyOfRange(child.label, common, child.label.length),
+                    child.children, child.entries, child.best);
+            child = new Node(Arrays.copyOf(child.label, common), new Node[] { tail }, null, tail.best);
+        }
+        Node[] children = node.children.clone();
+        children[c] = insert(child, key, i + common, rank);
+        return node.withChildren(children);
+    }
+
+    /*
+        Copy of `node` without the rank under key; `node` itself if the rank isn't there, null if
+        nothing would be left of it. Empty nodes are pruned and single-child chains merged on
+        the way back up.
+    */
+    private static Node delete(Node node, String key, int i, long rank) {
+        if (i == key.length()) {
+            long[] entries = removeRank(node.entries, rank);
+            if (entries == node.entries) {
+                return node;
+            }
+            return entries == null && node.children == null ? null : node.withEntries(entries);
+        }
+
+        int c = node.findChild(key.charAt(i));
+        if (c < 0) {
+            return node;
+        }
+        Node child = node.children[c];
+        if (commonLength(child.label, key, i) < child.label.length) {
+            return node;
+        }
+        Node result = delete(child, key, i + child.label.length, rank);
+        if (result == child) {
+            return node;
+        }
+
+        Node[] children;
+        if (result == null) {
+            children = removeChild(node.children, c);
+        } else {
+            if (result.entries == null && result.children.length == 1) {
+                Node only = result.children[0];
+                char[] merged = Arrays.copyOf(result.label, result.label.length + only.label.length);
+                System.arraycopy(only.label, 0, merged, result.label.length, only.label.length);
+                result = new Node(merged, only.children, only.entries, only.best);
+            }
+            children = node.children.clone();
+            children[c] = result;
+        }
+        if (children == null && node.entries == null && node.label.length > 0) {
+            return null;
+        }
+        return node.withChildren(children);
+    }
+
+    private static Node[] insertChild(Node[] children, Node child) {
+        if (children == null) {
+            return new Node[] { child };
+        }
+        int pos = 0;
+        while (pos < children.length && children[pos].label[0] < child.label[0]) {
+            pos++;
+        }
+        Node[] grown = new Node[children.length + 1];
+        System.arraycopy(children, 0, grown, 0, pos);
+        grown[pos] = child;
+        System.arraycopy(children, pos, grown, pos + 1, children.length - pos);
+        return grown;
+    }
+
+    private static Node[] removeChild(Node[] children, int index) {
+        if (children.length == 1) {
+            return null;
+        }
+        Node[] shrunk = new Node[children.length - 1];
+        System.arraycopy(children, 0, shrunk, 0, index);
+        System.arraycopy(children, index + 1, shrunk, index, children.length - index - 1);
+        return shrunk;
+    }
+
+    // Ranks are kept highest first
+    private static long[] addRank(long[] entries, long rank) {
+        if (entries == null) {
+            return new long[] { rank };
+        }
+        int pos = 0;
+        while (pos < entries.length && entries[pos] > rank) {
+            pos++;
+        }
+        long[] grown = new long[entries.length + 1];
+        System.arraycopy(entries, 0, grown, 0, pos);
+        grown[pos] = rank;
+        System.arraycopy(entries, pos, grown, pos + 1, entries.length - pos);
+        return grown;
+    }
+
+    // `entries` itself if the rank isn't there
+    private static long[] removeRank(long[] entries, long rank) {
+        if (entries == null) {
+            return null;
+        }
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == rank) {
+                if (entries.length == 1) {
+                    return null;
+                }
+                long[] shrunk = new long[entries.length - 1];
+                System.arraycopy(entries, 0, shrunk, 0, i);
+                System.arraycopy(entries, i + 1, shrunk, i, entries.length - i - 1);
+                return shrunk;
+            }
+        }
+        return entries;
+    }
+
+    private static long rankOf(Object item) {
+        return item instanceof Long ? (Long) item : ((Node) item).best;
+    }
+
+    private static int commonLength(char[] label, String key, int offset) {
+        int max = Math.min(label.length, key.length() - offset);
+        int n = 0;
+        while (n < max && label[n] == key.charAt(offset + n)) {
+            n++;
+        }
+        return n;
+    }
+
+    private static String fold(String title) {
+        return title == null ? "" : title.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Node {
+        final char[] label;
+        // Sorted by first label character; null for leaves
+        final Node[] children;
+        // Ranks of notes whose title ends here, highest first; null if none
+        final long[] entries;
+        final long best;
+
+        Node(char[] label, Node[] children, long[] entries, long best) {
+            this.label = label;
+            this.children = children;
+            this.entries = entries;
+            this.best = best;
+        }
+
+        Node withEntries(long[] newEntries) {
+            return new Node(label, children, newEntries, bestOf(children, newEntries));
+        }
+
+        Node withChildren(Node[] newChildren) {
+            return new Node(label, newChildren, entries, bestOf(newChildren, entries));
+        }
+
+        int findChild(char c) {
+            if (children == null) {
+                return -1;
+            }
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midChar = children[mid].label[0];
+                if (midChar < c) {
+                    low = mid + 1;
+                } else if (midChar > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private static long bestOf(Node[] children, long[] entries) {
+            long max = entries != null ? entries[0] : NONE;
+            if (children != null) {
+                for (Node child : children) {
+                    max = Math.max(max, child.best);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.arssh.notesmanager.services;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.Reminder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Imports a directory tree of .md and .txt files as new notes.
+
+    A ForkJoinPool walks the tree: one task per directory, which forks a task for each
+    subdirectory and reads and parses its own files. Parsed notes go into a bounded queue that
+    the calling thread drains in batches into NotesManager.applyBatch. When the queue is full the
+    readers wait, so at most a queue and a batch of notes are held however many files there are.
+
+    A file may start with front-matter:
+        ---
+        title: Groceries
+        tags: [home, weekly]
+        reminder: 2025-03-01T09:00
+        priority: 2
+        ---
+    Without a title the file name is used. Tags may also be a comma-separated line or "- tag"
+    lines. A reminder can be a date or a date and time; priority is 1-5, 3 if not given. A
+    one-line "summary" becomes the AI summary, as NoteExporter writes it.
+*/
+public class DirectoryImporter {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    private static final int DEFAULT_PRIORITY = 3;
+
+    private final NotesManager manager;
+    private final int threads;
+    private final int batchSize;
+
+    private BlockingQueue<Note> parsed;
+    private volatile boolean stopped;
+    private final AtomicLong filesRead = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    public DirectoryImporter(NotesManager manager) {
+        this(manager, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    public DirectoryImporter(NotesManager manager, int threads, int batchSize) {
+        this.manager = manager;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    // Import every note file under `root`; returns the final counters. One import per importer.
+    public ImportProgress importFrom(Path root, ImportListener listener) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        if (parsed != null) {
+            throw new IllegalStateException("This importer has already been used");
+        }
+        parsed = new ArrayBlockingQueue<>(batchSize * 2);
+
+        long start = System.nanoTime();
+        long notesImported = 0;
+        long lastReport = start;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ForkJoinTask<Void> walk = pool.submit(new DirectoryTask(root));
+            List<Mutation> batch = new ArrayList<>(batchSize);
+            while (true) {
+                // Check completion before the queue: once the walk is done nothing more is added
+                boolean walked = walk.isDone();
+                Note note = parsed.poll(walked ? 0 : PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (note != null) {
+                    batch.add(Mutation.add(note));
+                }
+                // Add what there is when the readers are slow, so progress shows as it happens
+                if (batch.size() == batchSize || (note == null && !batch.isEmpty())) {
+                    manager.applyBatch(batch);
+                    notesImported += batch.size();
+                    batch = new ArrayList<>(batchSize);
+                }
+                if (note == null && walked) {
+                    break;
+                }
+
+                long now = System.nanoTime();
+                if (listener != null && now - lastReport >= TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MS)) {
+                    listener.onProgress(progress(notesImported, start, false));
+                    lastReport = now;
+                }
+            }
+            // Rethrow anything unexpected from the walk
+            walk.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } finally {
+            stopped = true;
+            pool.shutdownNow();
+        }
+
+        ImportProgress result = progress(notesImported, start, true);
+        if (listener != null) {
+            listener.onProgress(result);
+        }
+        return result;
+    }
+
+    private ImportProgress progress(long notesImported, long start, boolean done) {
+        return new ImportProgress(filesRead.get(), filesFailed.get(), notesImported, bytesRead.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), done);
+    }
+
+    private void readFile(Path file) {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            Note note = parse(file.getFileName().toString(), new String(bytes, StandardCharsets.UTF_8));
+            filesRead.incrementAndGet();
+            bytesRead.addAndGet(bytes.length);
+            hand(note);
+        } catch (IOException e) {
+            // Reads are interrupted when the import stops early; those are not failures of the file
+            if (!stopped) {
+                filesFailed.incrementAndGet();
+                System.err.println("Error importing " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Wait for room in the queue; give up if the import has stopped
+    private void hand(Note note) {
+        try {
+            while (!stopped) {
+                if (parsed.offer(note, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isNoteFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".md") || name.endsWith(".txt");
+    }
+
+    // Note for a file's text; front-matter fields become title, tags and reminder
+    static Note parse(String fileName, String text) {
+        if (text.startsWith("\uFEFF")) {
+            text = text.substring(1);
+        }
+        String title = null;
+        List<String> tags = new ArrayList<>();
+        String reminderText = null;
+        String priorityText = null;
+        String summary = null;
+        String body = text;
+
+        int end = frontMatterEnd(text);
+        if (end > 0) {
+            String[] lines = text.substring(text.indexOf('\n') + 1, end).split("\r?\n");
+            String key = null;
+            for (String line : lines) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith("- ") && "tags".equals(key)) {
+                    addTags(tags, trimmed.substring(2));
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = unquote(line.substring(colon + 1).trim());
+                switch (key) {
+                    case "title":
+                        title = value;
+                        break;
+                    case "tags":
+                        if (value.startsWith("[") && value.endsWith("]")) {
+                            value = value.substring(1, value.length() - 1);
+                        }
+                        addTags(tags, value);
+                        break;
+                    case "reminder":
+                        reminderText = value;
+                        break;
+                    case "priority":
+                        priorityText = value;
+                        break;
+                    case "summary":
+                        summary = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            int bodyStart = text.indexOf('\n', end);
+            body = bodyStart < 0 ? "" : text.substring(bodyStart + 1).replaceFirst("^(\r?\n)+", "");
+        }
+
+        if (title == null || title.isEmpty()) {
+            int dot = fileName.lastIndexOf('.');
+            title = dot > 0 ? fileName.substring(0, dot) : fileName;
+        }
+        Note note = new Note(title, body);
+        note.setTags(tags);
+        if (summary != null && !summary.isEmpty()) {
+            note.setAiSummary(summary);
+        }
+        if (reminderText != null && !reminderText.isEmpty()) {
+            note.setReminder(reminder(fileName, reminderText, priorityText));
+        }
+        return note;
+    }
+
+    // Start of the closing "---" line of a front-matter block, or -1 if the text has none
+    private static int frontMatterEnd(String text) {
+        if (!text.startsWith("---\n") && !text.startsWith("---\r\n")) {
+            return -1;
+        }
+        int lineStart = text.indexOf('\n') + 1;
+        while (lineStart > 0 && lineStart < text.length()) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            String line = (lineEnd < 0 ? text.substring(lineStart) : text.substring(lineStart, lineEnd)).trim();
+            if (line.equals("---") || line.equals("...")) {
+                return lineStart;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return -1;
+    }
+
+    private static void addTags(List<String> tags, String value) {
+        for (String tag : value.split(",")) {
+            tag = unquote(tag.trim());
+            if (!tag.isEmpty() && !tags.contains(tag)) {
+                tags.add(tag);
+            }
+        }
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && (value.startsWith("\"") && value.endsWith("\"")
+                || value.startsWith("'") && value.endsWith("'"))) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    private static Reminder reminder(String fileName, String time, String priorityText) {
+        LocalDateTime when;
+        try {
+            when = time.length() <= 10 ? LocalDate.parse(time).atStartOfDay()
+                    : LocalDateTime.parse(time.replace(' ', 'T'));
+        } catch (DateTimeParseException e) {
+            System.err.println("Ignoring reminder in " + fileName + ": " + e.getMessage());
+            return null;
+        }
+        int priority = DEFAULT_PRIORITY;
+        if (priorityText != null) {
+            try {
+                priority = Math.max(1, Math.min(5, Integer.parseInt(priorityText)));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring priority in " + fileName + ": " + priorityText);
+            }
+        }
+        return new Reminder(when, priority);
+    }
+
+    // Reads one directory's note files and forks a task per subdirectory; symbolic links are not followed
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        DirectoryTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (stopped) {
+                        break;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        DirectoryTask task = new DirectoryTask(entry);
+                        task.fork();
+                        subdirectories.add(task);
+                    } else if (attributes.isRegularFile() && isNoteFile(entry)) {
+                        readFile(entry);
+                    }
+                }
+            } catch (IOException e) {
+                filesFailed.incrementAndGet();
+                System.err.println("Error importing " + directory + ": " + e.getMessage());
+            }
+            for (DirectoryTask task : subdirectories) {
+                task.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.arssh.notesmanager.services;
+
+// Told how a directory import is going, about twice a second and once at the end. Called on the importing thread.
+@FunctionalInterface
+public interface ImportListener {
+    void onProgress(ImportProgress progress);
+}
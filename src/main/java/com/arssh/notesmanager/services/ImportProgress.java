@@ -0,0 +1,65 @@
+package com.arssh.notesmanager.services;
+
+/*
+    Counters of a directory import at one point in time, passed to ImportListener while the
+    import runs and returned when it ends.
+*/
+public class ImportProgress {
+    private final long filesRead;
+    private final long filesFailed;
+    private final long notesImported;
+    private final long bytesRead;
+    private final long elapsedMillis;
+    private final boolean done;
+
+    ImportProgress(long filesRead, long filesFailed, long notesImported, long bytesRead, long elapsedMillis,
+                   boolean done) {
+        this.filesRead = filesRead;
+        this.filesFailed = filesFailed;
+        this.notesImported = notesImported;
+        this.bytesRead = bytesRead;
+        this.elapsedMillis = elapsedMillis;
+        this.done = done;
+    }
+
+    // Files read and parsed, whether or not their notes have been added yet
+    public long getFilesRead() {
+        return filesRead;
+    }
+
+    // Files and directories that could not be read; each is reported on System.err
+    public long getFilesFailed() {
+        return filesFailed;
+    }
+
+    // Notes added to NotesManager so far
+    public long getNotesImported() {
+        return notesImported;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public double getFilesPerSecond() {
+        return elapsedMillis == 0 ? 0 : filesRead * 1000.0 / elapsedMillis;
+    }
+
+    public double getMegabytesPerSecond() {
+        return elapsedMillis == 0 ? 0 : bytesRead / (1024.0 * 1024.0) * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d notes imported, %d files read (%.0f files/s, %.1f MB/s), %d failed",
+                notesImported, filesRead, getFilesPerSecond(), getMegabytesPerSecond(), filesFailed);
+    }
+}
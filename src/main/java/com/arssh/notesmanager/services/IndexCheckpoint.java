@@ -0,0 +1,126 @@
+package com.arssh.notesmanager.services;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.search.TitleTrie;
+import com.arssh.notesmanager.structures.NoteLL;
+import com.arssh.notesmanager.structures.ReminderPriorityQueue;
+import com.arssh.notesmanager.structures.TagIndex;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Saved copy of the indexes derived from the notes, so startup can skip rebuilding them.
+
+    Layout (big-endian):
+        magic | format version | store version | note count
+        reminder order  - count, then note ids earliest first
+        title index     - TitleTrie.writeTo
+        tag index       - TagIndex.writeTo
+
+    The store version stamp ties the file to one state of the note store; any write to the store
+    changes it and the checkpoint is ignored. It is written only at a clean shutdown, so after a
+    crash startup finds it stale and rebuilds. The file is read with one bulk read and parsed from
+    the buffer, rather than memory-mapped, so it can still be replaced on exit on Windows.
+*/
+final class IndexCheckpoint {
+    private static final int MAGIC = 0x4E4D4358;
+    private static final int FORMAT_VERSION = 1;
+
+    private final ByteBuffer data;
+
+    private IndexCheckpoint(ByteBuffer data) {
+        this.data = data;
+    }
+
+    static void save(File file, long storeVersion, NoteLL notes, ReminderPriorityQueue reminders,
+                     TitleTrie titles, TagIndex tags) throws IOException {
+        File parentDir = file.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(storeVersion);
+            out.writeInt(notes.size());
+
+            List<Note> upcoming = reminders.getUpcoming(reminders.size());
+            out.writeInt(upcoming.size());
+            for (Note note : upcoming) {
+                out.writeInt(note.getId());
+            }
+            titles.writeTo(out);
+            tags.writeTo(out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Checkpoint positioned after its stamp, or null if it is missing or from another store version
+    static IndexCheckpoint open(File file, long storeVersion) {
+        if (storeVersion == 0 || !file.exists()) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // keep reading until the buffer is full
+            }
+            data.flip();
+            if (data.remaining() < 16 || data.getInt() != MAGIC || data.getInt() != FORMAT_VERSION
+                    || data.getLong() != storeVersion) {
+                return null;
+            }
+            return new IndexCheckpoint(data);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /*
+        Fill the indexes from the checkpoint. Returns false if the file turns out to be damaged or
+        doesn't match the notes; the indexes may then be half-filled and must be rebuilt.
+    */
+    boolean restore(NoteLL notes, ReminderPriorityQueue reminders, TitleTrie titles, TagIndex tags) {
+        try {
+            if (data.getInt() != notes.size()) {
+                return false;
+            }
+            int reminderCount = data.getInt();
+            List<Note> inOrder = new ArrayList<>(reminderCount);
+            for (int i = 0; i < reminderCount; i++) {
+                Note note = notes.findById(data.getInt());
+                if (note == null) {
+                    return false;
+                }
+                inOrder.add(note);
+            }
+            // Already sorted, so building the partial is a single pass
+            ReminderPriorityQueue.Partial partial = ReminderPriorityQueue.partial(inOrder);
+            if (partial.size() != reminderCount) {
+                return false;
+            }
+            reminders.rebuild(List.of(partial));
+
+            titles.readFrom(data);
+            tags.readFrom(data);
+            return titles.size() == notes.size() && tags.allIds().cardinality() == notes.size();
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.arssh.notesmanager.services;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.Reminder;
+
+/*
+    One change in a batch passed to NotesManager.applyBatch.
+    Mirrors the single-note methods: add, update, delete, set or remove a reminder.
+*/
+public final class Mutation {
+    public enum Type { ADD, UPDATE, DELETE, SET_REMINDER, REMOVE_REMINDER }
+
+    private final Type type;
+    private final int id;
+    private final Note note;
+    private final Reminder reminder;
+
+    private Mutation(Type type, int id, Note note, Reminder reminder) {
+        this.type = type;
+        this.id = id;
+        this.note = note;
+        this.reminder = reminder;
+    }
+
+    public static Mutation add(Note note) {
+        return new Mutation(Type.ADD, 0, note, null);
+    }
+
+    // Copy the fields of `updated` onto the note with this id, like updateNote
+    public static Mutation update(int id, Note updated) {
+        return new Mutation(Type.UPDATE, id, updated, null);
+    }
+
+    public static Mutation delete(int id) {
+        return new Mutation(Type.DELETE, id, null, null);
+    }
+
+    public static Mutation setReminder(int id, Reminder reminder) {
+        return new Mutation(Type.SET_REMINDER, id, null, reminder);
+    }
+
+    public static Mutation removeReminder(int id) {
+        return new Mutation(Type.REMOVE_REMINDER, id, null, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    public Reminder getReminder() {
+        return reminder;
+    }
+}
@@ -0,0 +1,200 @@
+package com.arssh.notesmanager.services;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.persistence.LocalDateTimeAdapter;
+import com.arssh.notesmanager.structures.NoteSnapshot;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Writes notes out as Markdown files, CSV or newline-delimited JSON.
+
+    Notes are taken one at a time from a NoteSnapshot and written straight to a buffered stream,
+    so only the note being written is held, however many there are. A note's text is read when it
+    is written; with the segment and B+tree stores that goes through the body cache, so it stays
+    within its budget too.
+
+    Output goes into a directory:
+        CSV, NDJSON    notes.csv / notes.ndjson, or notes-00001.csv, notes-00002.csv, ... of
+                       `notesPerChunk` notes each; gzip-compressed (.gz) if asked
+        MARKDOWN       one <title>-<id>.md per note, with the front-matter DirectoryImporter reads,
+                       in subdirectories part-00001, part-00002, ... when chunked; never compressed
+*/
+public class NoteExporter {
+    public enum Format { MARKDOWN, CSV, NDJSON }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FILE_NAME_TITLE = 60;
+    private static final String CSV_HEADER = "id,title,tags,reminder,priority,reminderActive,aiSummary,mainText";
+
+    private final Format format;
+    private final int notesPerChunk;
+    private final boolean gzip;
+    private final Gson gson;
+
+    // notesPerChunk 0 writes everything into one file (one directory for Markdown)
+    public NoteExporter(Format format, int notesPerChunk, boolean gzip) {
+        this.format = format;
+        this.notesPerChunk = notesPerChunk;
+        this.gzip = gzip;
+        this.gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+    }
+
+    // Write every note in `notes`, in list order, into `directory`; returns how many were written
+    public long export(NoteSnapshot notes, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        try {
+            return format == Format.MARKDOWN ? exportMarkdown(notes, directory) : exportChunked(notes, directory);
+        } catch (UncheckedIOException e) {
+            // A note whose text the store can't read
+            throw e.getCause();
+        }
+    }
+
+    private long exportChunked(NoteSnapshot notes, Path directory) throws IOException {
+        long written = 0;
+        int chunk = 0;
+        Writer out = null;
+        try {
+            for (Note note : notes.asList()) {
+                if (out == null || (notesPerChunk > 0 && written % notesPerChunk == 0)) {
+                    if (out != null) {
+                        out.close();
+                    }
+                    out = openChunk(directory, ++chunk);
+                }
+                if (format == Format.CSV) {
+                    writeCsv(note, out);
+                } else {
+                    gson.toJson(note.copy(), Note.class, out);
+                    out.write('\n');
+                }
+                written++;
+            }
+            if (out == null) {
+                // Nothing to export; still leave an (empty) file behind
+                out = openChunk(directory, 1);
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+        return written;
+    }
+
+    private Writer openChunk(Path directory, int chunk) throws IOException {
+        String extension = format == Format.CSV ? ".csv" : ".ndjson";
+        String name = notesPerChunk > 0 ? String.format("notes-%05d%s", chunk, extension) : "notes" + extension;
+        OutputStream stream = Files.newOutputStream(directory.resolve(gzip ? name + ".gz" : name));
+        if (gzip) {
+            stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+        if (format == Format.CSV) {
+            out.write(CSV_HEADER);
+            out.write("\r\n");
+        }
+        return out;
+    }
+
+    private long exportMarkdown(NoteSnapshot notes, Path directory) throws IOException {
+        long written = 0;
+        Path target = directory;
+        for (Note note : notes.asList()) {
+            if (notesPerChunk > 0 && written % notesPerChunk == 0) {
+                target = directory.resolve(String.format("part-%05d", written / notesPerChunk + 1));
+                Files.createDirectories(target);
+            }
+            Path file = target.resolve(fileName(note));
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file),
+                    StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                writeMarkdown(note, out);
+            }
+            written++;
+        }
+        return written;
+    }
+
+    private static void writeMarkdown(Note note, Writer out) throws IOException {
+        out.write("---\n");
+        out.write("id: " + note.getId() + "\n");
+        out.write("title: \"" + oneLine(note.getTitle()) + "\"\n");
+        if (!note.getTags().isEmpty()) {
+            out.write("tags: [" + oneLine(String.join(", ", note.getTags())) + "]\n");
+        }
+        Reminder reminder = note.getReminder();
+        if (reminder != null && reminder.isActive()) {
+            out.write("reminder: " + reminder.getTime() + "\n");
+            out.write("priority: " + reminder.getPriority() + "\n");
+        }
+        String summary = note.getAiSummary();
+        if (summary != null && !summary.isEmpty()) {
+            out.write("summary: \"" + oneLine(summary) + "\"\n");
+        }
+        out.write("---\n\n");
+        String text = note.getMainText();
+        out.write(text != null ? text : "");
+    }
+
+    private static void writeCsv(Note note, Writer out) throws IOException {
+        Reminder reminder = note.getReminder();
+        out.write(Integer.toString(note.getId()));
+        out.write(',');
+        out.write(csvField(note.getTitle()));
+        out.write(',');
+        out.write(csvField(String.join(";", note.getTags())));
+        out.write(',');
+        out.write(reminder != null ? reminder.getTime().toString() : "");
+        out.write(',');
+        out.write(reminder != null ? Integer.toString(reminder.getPriority()) : "");
+        out.write(',');
+        out.write(reminder != null ? Boolean.toString(reminder.isActive()) : "");
+        out.write(',');
+        out.write(csvField(note.getAiSummary()));
+        out.write(',');
+        out.write(csvField(note.getMainText()));
+        out.write("\r\n");
+    }
+
+    // Quoted (RFC 4180) when it holds a comma, quote or line break
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String oneLine(String value) {
+        return value == null ? "" : value.replaceAll("\\s*[\r\n]+\\s*", " ");
+    }
+
+    // Title with characters that are unsafe in file names replaced, plus the id to keep names unique
+    private static String fileName(Note note) {
+        String title = note.getTitle() == null ? "" : note.getTitle().replaceAll("[^\\p{L}\\p{N} ._-]", "_").trim();
+        if (title.length() > MAX_FILE_NAME_TITLE) {
+            title = title.substring(0, MAX_FILE_NAME_TITLE).trim();
+        }
+        // Leading dots would make hidden files
+        title = title.replaceFirst("^\\.+", "");
+        return (title.isEmpty() ? "note" : title) + "-" + note.getId() + ".md";
+    }
+}
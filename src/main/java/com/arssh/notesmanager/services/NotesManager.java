@@ -2,99 +2,694 @@ package com.arssh.notesmanager.services;
 
 import com.arssh.notesmanager.Note;
 import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.persistence.BTreePersistence;
+import com.arssh.notesmanager.persistence.BodyCachePersistence;
 import com.arssh.notesmanager.persistence.JSONPersistence;
+import com.arssh.notesmanager.persistence.LogPersistence;
+import com.arssh.notesmanager.persistence.ChangeSet;
 import com.arssh.notesmanager.persistence.PersistenceService;
+import com.arssh.notesmanager.persistence.SegmentedPersistence;
+import com.arssh.notesmanager.persistence.ShardedJsonPersistence;
+import com.arssh.notesmanager.persistence.WriteBehindPersistence;
+import com.arssh.notesmanager.search.FullTextIndex;
+import com.arssh.notesmanager.search.FuzzyIndex;
+import com.arssh.notesmanager.search.LevenshteinAutomaton;
+import com.arssh.notesmanager.search.SearchResult;
+import com.arssh.notesmanager.search.TitleTrie;
 import com.arssh.notesmanager.structures.NoteLL;
+import com.arssh.notesmanager.structures.NoteSnapshot;
 import com.arssh.notesmanager.structures.ReminderPriorityQueue;
+import com.arssh.notesmanager.structures.RoaringBitmap;
+import com.arssh.notesmanager.structures.TagIndex;
+import com.arssh.notesmanager.structures.TagQuery;
+import com.arssh.notesmanager.structures.TextArena;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class NotesManager {
-    private static NotesManager instance;
-    private NoteLL allNotes;
+    // How long a burst of edits may be held before it is written, override with -Dnotesmanager.flushWindowMs
+    private static final long FLUSH_WINDOW_MS = Long.getLong("notesmanager.flushWindowMs", 250);
+
+    // Note store backend: "segments" (binary, memory-mapped segment files, default),
+    // "btree" (page file read through a buffer pool), "json" (sharded JSON files) or "log" (notes.json + notes.log)
+    private static final String STORE_TYPE = System.getProperty("notesmanager.store", "segments");
+
+    // Memory for cached pages of the "btree" store, override with -Dnotesmanager.bufferPoolMb
+    private static final long BUFFER_POOL_MB = Long.getLong("notesmanager.bufferPoolMb", 8);
+
+    // Memory for note text kept loaded, override with -Dnotesmanager.bodyCacheMb
+    private static final long BODY_CACHE_MB = Long.getLong("notesmanager.bodyCacheMb", 64);
+
+    // Keep note text in off-heap arenas instead of on the Java heap, enable with -Dnotesmanager.offHeapText=true
+    private static final boolean OFF_HEAP_TEXT = Boolean.getBoolean("notesmanager.offHeapText");
+
+    // Saved search index, reused on startup while the note store is unchanged
+    private static final File SEARCH_INDEX_FILE = new File(System.getProperty("user.home")
+            + File.separator + ".notesmanager" + File.separator + "search.idx");
+
+    // Saved reminder order, title and tag indexes, reused on startup while the note store is unchanged
+    private static final File INDEX_CHECKPOINT_FILE = new File(System.getProperty("user.home")
+            + File.separator + ".notesmanager" + File.separator + "indexes.ckpt");
+
+    private volatile NoteLL allNotes;
     private ReminderPriorityQueue activeReminders;
+    private TagIndex tagIndex;
+    private volatile FullTextIndex searchIndex;
+    private TitleTrie titleIndex;
+    private FuzzyIndex fuzzyIndex;
     private PersistenceService persistence;
+    private WriteBehindPersistence writeBehind;
+    private BodyCachePersistence bodyCache;
+    // The store when it is the B+tree one (-Dnotesmanager.store=btree), otherwise null. Only the
+    // range queries go to it; lookups by id or title use the in-memory list, which every store
+    // loads in full (metadata only, for this one) and which already has the live note.
+    private BTreePersistence btreeStore;
+    private ReminderDispatcher reminderDispatcher;
+    // Where note text is kept when OFF_HEAP_TEXT is set, otherwise null
+    private TextArena textArena;
+
+    // Notes changed or deleted by the current operation, handed to the store as one ChangeSet
+    private ChangeSet dirty;
+
+    // Changes hold the lock, so they are applied to the list and the indexes one at a time. Queries
+    // take no lock: the list is read from a snapshot and every index can be read while the one
+    // writer changes it, so a long search never holds up an edit and an edit never waits on one.
+    // Changes by title look the title up while holding it, so they act on the note that had it then.
+    private final ReentrantLock lock = new ReentrantLock();
 
     private NotesManager() {
         this.allNotes = new NoteLL();
         this.activeReminders = new ReminderPriorityQueue();
-        this.persistence = new JSONPersistence();
+        this.tagIndex = new TagIndex();
+        this.searchIndex = new FullTextIndex();
+        this.titleIndex = new TitleTrie();
+        this.fuzzyIndex = new FuzzyIndex();
+        PersistenceService store = createStore();
+        this.btreeStore = store instanceof BTreePersistence ? (BTreePersistence) store : null;
+        this.bodyCache = new BodyCachePersistence(store, BODY_CACHE_MB * 1024 * 1024);
+        this.writeBehind = new WriteBehindPersistence(bodyCache, FLUSH_WINDOW_MS);
+        this.persistence = writeBehind;
+        this.reminderDispatcher = new ReminderDispatcher();
+        this.dirty = new ChangeSet();
+        this.textArena = OFF_HEAP_TEXT ? new TextArena() : null;
     }
 
-    public static NotesManager getInstance() {
-        if (instance == null) {
-            instance = new NotesManager();
+    private static PersistenceService createStore() {
+        PersistenceService store;
+        if (STORE_TYPE.equals("log")) {
+            return new LogPersistence();
+        } else if (STORE_TYPE.equals("json")) {
+            store = new ShardedJsonPersistence();
+        } else if (STORE_TYPE.equals("btree")) {
+            store = new BTreePersistence(System.getProperty("user.home") + File.separator + ".notesmanager"
+                    + File.separator + "notes.btree", BUFFER_POOL_MB * 1024 * 1024);
+        } else {
+            store = new SegmentedPersistence();
+        }
+
+        // First run on a new store: bring over the notes from notes.json / notes.log once
+        LogPersistence legacy = new LogPersistence();
+        if (!store.dataFileExists() && legacy.dataFileExists()) {
+            try {
+                store.saveNotes(legacy.loadNotes());
+                legacy.close();
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("Error migrating notes to the new store: " + e.getMessage());
+                e.printStackTrace();
+            }
         }
-        return instance;
+        return store;
+    }
+
+    // Created on first use; class initialization makes that thread-safe without locking on every call
+    private static final class Holder {
+        static final NotesManager INSTANCE = new NotesManager();
+    }
+
+    public static NotesManager getInstance() {
+        return Holder.INSTANCE;
     }
 
     public void initialize() {
-        loadNotes();
+        lock.lock();
+        try {
+            loadNotes();
+        } finally {
+            lock.unlock();
+        }
+        reminderDispatcher.start();
     }
 
     public void addNote(Note note) {
-        allNotes.add(note);
-        if (note.getReminder() != null && note.getReminder().isActive()) {
-            activeReminders.insert(note);
+        lock.lock();
+        try {
+            if (textArena != null) {
+                note.useTextArena(textArena);
+            }
+            allNotes.add(note);
+            indexAdded(note);
+            saveDirty();
+        } finally {
+            lock.unlock();
         }
-        saveNotes();
     }
 
     public void updateNote(String oldTitle, Note updated) {
-        allNotes.remove(oldTitle);
-        allNotes.add(updated);
-        activeReminders.rebuild(allNotes);
-        saveNotes();
+        lock.lock();
+        try {
+            Note existing = allNotes.findByTitle(oldTitle);
+            if (existing != null) {
+                updateNote(existing.getId(), updated);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Store a new version of the note with the fields of `updated`; it keeps its id and place in the list
+    public void updateNote(int id, Note updated) {
+        lock.lock();
+        try {
+            Note existing = allNotes.findById(id);
+            if (existing == null) {
+                return;
+            }
+
+            // The text goes first: if it can't be read, nothing has been changed yet
+            Note edited = updated.newVersion();
+            edited.setId(id);
+            replaceNote(existing, edited, true);
+            saveDirty();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void deleteNote(String title) {
-        Note note = allNotes.findByTitle(title);
-        if (note != null) {
-            allNotes.remove(title);
-            activeReminders.remove(note);
+        lock.lock();
+        try {
+            Note note = allNotes.findByTitle(title);
+            if (note != null) {
+                deleteNote(note.getId());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void deleteNote(int id) {
+        lock.lock();
+        try {
+            Note note = allNotes.removeById(id);
+            if (note != null) {
+                indexDeleted(note, note.getTitle(), TitleTrie.rank(note));
+                saveDirty();
+            }
+        } finally {
+            lock.unlock();
         }
-        saveNotes();
     }
 
     public Note getNoteByTitle(String title) {
         return allNotes.findByTitle(title);
     }
 
+    public Note getNoteById(int id) {
+        return allNotes.findById(id);
+    }
+
+    // Every note, newest first, as a read-only view of the current snapshot; later adds and deletes
+    // don't change it, so it can be kept and read from any thread
     public List<Note> getAllNotes() {
-        List<Note> noteList = new ArrayList<>();
-        allNotes.forEach(noteList::add);
-        return noteList;
+        return allNotes.snapshot().asList();
+    }
+
+    // The notes as of now, O(1); older snapshots stay valid, e.g. to compare with or go back to
+    public NoteSnapshot getSnapshot() {
+        return allNotes.snapshot();
+    }
+
+    // Notes matching a tag expression, newest first
+    public List<Note> findNotesByTags(TagQuery query) {
+        RoaringBitmap ids = tagIndex.query(query);
+        List<Note> matches = new ArrayList<>(ids.cardinality());
+        ids.forEach(id -> {
+            Note note = allNotes.findById(id);
+            if (note != null) {
+                matches.add(note);
+            }
+        });
+        Collections.reverse(matches);
+        return matches;
+    }
+
+    public List<Note> findNotesByTag(String tag) {
+        return findNotesByTags(TagQuery.tag(tag));
+    }
+
+    // Full-text search over title, text and AI summary, best match first
+    public List<Note> search(String query, int limit) {
+        List<Note> matches = new ArrayList<>();
+        for (SearchResult result : searchIndex.search(query, limit)) {
+            Note note = allNotes.findById(result.getNoteId());
+            if (note != null) {
+                matches.add(note);
+            }
+        }
+        return matches;
+    }
+
+    // Type-ahead: notes whose title starts with `prefix`, reminders by priority first, then newest
+    public List<Note> completeTitle(String prefix, int limit) {
+        List<Note> matches = new ArrayList<>();
+        for (int id : titleIndex.complete(prefix, limit)) {
+            Note note = allNotes.findById(id);
+            if (note != null) {
+                matches.add(note);
+            }
+        }
+        return matches;
+    }
+
+    // Title and tag words matched with up to 2 typos per word, closest first
+    public List<Note> fuzzySearch(String query, int limit) {
+        List<Note> matches = new ArrayList<>();
+        for (SearchResult result : fuzzyIndex.search(query, LevenshteinAutomaton.MAX_EDITS, limit)) {
+            Note note = allNotes.findById(result.getNoteId());
+            if (note != null) {
+                matches.add(note);
+            }
+        }
+        return matches;
     }
 
     public List<Note> getUpcomingReminders(int count) {
         return activeReminders.getUpcoming(count);
     }
 
+    // Up to `limit` notes with an active reminder due in [from, to], earliest first. The B+tree
+    // store answers from its reminder tree once pending changes are written, the others from
+    // the in-memory reminder index.
+    public List<Note> getRemindersBetween(LocalDateTime from, LocalDateTime to, int limit) {
+        if (btreeStore != null) {
+            try {
+                writeBehind.flush();
+                return liveNotes(btreeStore.reminderIdsBetween(from, to, limit));
+            } catch (IOException e) {
+                System.err.println("Error reading reminders from the store: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return activeReminders.between(from, to, limit);
+    }
+
+    // Up to `limit` notes with ids above `afterId`, in id order; pass the last id to get the next
+    // page, and an empty page means there are no more. Paged through the B+tree store's note tree
+    // when it is in use, like getRemindersBetween.
+    public List<Note> getNotesPage(int afterId, int limit) {
+        if (btreeStore != null) {
+            try {
+                writeBehind.flush();
+                List<Note> page = new ArrayList<>();
+                List<Integer> ids = btreeStore.noteIdsAfter(afterId, limit);
+                // Notes deleted since the flush leave gaps; read on so the page is only empty at the end
+                while (page.isEmpty() && !ids.isEmpty()) {
+                    page = liveNotes(ids);
+                    ids = page.isEmpty() ? btreeStore.noteIdsAfter(ids.get(ids.size() - 1), limit) : ids;
+                }
+                return page;
+            } catch (IOException e) {
+                System.err.println("Error reading notes from the store: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return allNotes.snapshot().pageById(afterId, limit);
+    }
+
+    // The notes in the list for `ids`, in the same order; ids no longer in the list are skipped
+    private List<Note> liveNotes(List<Integer> ids) {
+        NoteSnapshot snapshot = allNotes.snapshot();
+        List<Note> notes = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            Note note = snapshot.findById(id);
+            if (note != null) {
+                notes.add(note);
+            }
+        }
+        return notes;
+    }
+
+    public void addReminderListener(ReminderListener listener) {
+        reminderDispatcher.addListener(listener);
+    }
+
+    public void removeReminderListener(ReminderListener listener) {
+        reminderDispatcher.removeListener(listener);
+    }
+
     public void setReminder(String noteTitle, Reminder reminder) {
-        Note note = allNotes.findByTitle(noteTitle);
-        if (note != null) {
-            note.setReminder(reminder);
-            activeReminders.rebuild(allNotes);
-            saveNotes();
+        lock.lock();
+        try {
+            Note note = allNotes.findByTitle(noteTitle);
+            if (note != null) {
+                setReminder(note.getId(), reminder);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setReminder(int id, Reminder reminder) {
+        lock.lock();
+        try {
+            Note note = allNotes.findById(id);
+            if (note != null) {
+                Note edited = note.newVersion();
+                edited.setReminder(reminder != null ? reminder.copy() : null);
+                replaceNote(note, edited, false);
+                saveDirty();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     public void removeReminder(String noteTitle) {
-        Note note = allNotes.findByTitle(noteTitle);
-        if (note != null) {
-            if (note.getReminder() != null) {
-                note.getReminder().deactivate();
+        lock.lock();
+        try {
+            Note note = allNotes.findByTitle(noteTitle);
+            if (note != null) {
+                removeReminder(note.getId());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void removeReminder(int id) {
+        lock.lock();
+        try {
+            Note note = allNotes.findById(id);
+            if (note != null) {
+                Note edited = note.newVersion();
+                if (edited.getReminder() != null) {
+                    edited.getReminder().deactivate();
+                }
+                replaceNote(note, edited, false);
+                saveDirty();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Put `edited` in the list in place of `existing` and re-index it. `existing` itself is left as
+    // it was for anyone still holding it, with its text moved back to the heap.
+    private void replaceNote(Note existing, Note edited, boolean contentChanged) {
+        if (textArena != null) {
+            edited.useTextArena(textArena);
+        }
+        allNotes.replace(edited);
+        indexChanged(existing, edited, contentChanged);
+        existing.useTextArena(null);
+    }
+
+    // Apply several changes as one: every note touched is re-indexed once and the store gets them in a
+    // single ChangeSet. Either all of them are applied or none: a change that refers to a note that
+    // isn't there is reported with IllegalArgumentException before anything is touched, and if
+    // applying fails part way the list and indexes are put back as they were.
+    public void applyBatch(List<Mutation> mutations) {
+        lock.lock();
+        try {
+            checkBatch(mutations);
+
+            NoteSnapshot before = allNotes.snapshot();
+            int nextIdBefore = allNotes.getNextId();
+            // Ids of the notes added, changed or deleted, in the order first touched
+            Set<Integer> touched = new LinkedHashSet<>();
+            Set<Integer> contentChanged = new HashSet<>();
+            Set<Integer> addedIds = new HashSet<>();
+            List<Note> added = new ArrayList<>();
+            // Added notes that came without an id and were given one by the list
+            Set<Note> numbered = Collections.newSetFromMap(new IdentityHashMap<>());
+            // Versions made by the batch, and every note it took out of the list
+            List<Note> created = new ArrayList<>();
+            List<Note> removed = new ArrayList<>();
+            boolean indexing = false;
+            try {
+                for (Mutation mutation : mutations) {
+                    applyMutation(mutation, touched, contentChanged, addedIds, added, numbered, created, removed);
+                }
+                indexing = true;
+                indexBatch(before, touched, contentChanged, addedIds);
+            } catch (RuntimeException e) {
+                rollBack(before, nextIdBefore, touched, added, numbered, created, indexing);
+                throw e;
             }
-            activeReminders.rebuild(allNotes);
-            saveNotes();
+            // Only now that the batch stays: notes taken out keep their text, off the arena
+            for (Note note : removed) {
+                note.useTextArena(null);
+            }
+            saveDirty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Walk the batch against the ids that will exist at each step
+    private void checkBatch(List<Mutation> mutations) {
+        Set<Integer> deleted = new HashSet<>();
+        Set<Integer> addedIds = new HashSet<>();
+        Set<Note> addedNotes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < mutations.size(); i++) {
+            Mutation mutation = mutations.get(i);
+            int id = mutation.getId();
+            boolean exists = addedIds.contains(id) || (allNotes.contains(id) && !deleted.contains(id));
+
+            if (mutation.getType() == Mutation.Type.ADD) {
+                Note note = mutation.getNote();
+                if (note == null || !addedNotes.add(note)) {
+                    throw new IllegalArgumentException("Mutation " + i + ": no note, or the same note added twice");
+                }
+                int presetId = note.getId();
+                if (presetId != 0) {
+                    if (addedIds.contains(presetId) || (allNotes.contains(presetId) && !deleted.contains(presetId))) {
+                        throw new IllegalArgumentException("Mutation " + i + ": a note with id " + presetId + " already exists");
+                    }
+                    addedIds.add(presetId);
+                }
+                continue;
+            }
+
+            if (!exists) {
+                throw new IllegalArgumentException("Mutation " + i + ": no note with id " + id);
+            }
+            if (mutation.getType() == Mutation.Type.UPDATE && mutation.getNote() == null) {
+                throw new IllegalArgumentException("Mutation " + i + ": update without a note");
+            }
+            if (mutation.getType() == Mutation.Type.DELETE) {
+                deleted.add(id);
+                addedIds.remove(id);
+            }
+        }
+    }
+
+    // Change the list only; indexes are brought up to date by indexBatch afterwards
+    private void applyMutation(Mutation mutation, Set<Integer> touched, Set<Integer> contentChanged,
+                               Set<Integer> addedIds, List<Note> added, Set<Note> numbered,
+                               List<Note> created, List<Note> removed) {
+        if (mutation.getType() == Mutation.Type.ADD) {
+            Note note = mutation.getNote();
+            if (textArena != null) {
+                note.useTextArena(textArena);
+            }
+            if (note.getId() == 0) {
+                numbered.add(note);
+            }
+            allNotes.add(note);
+            added.add(note);
+            touched.add(note.getId());
+            addedIds.add(note.getId());
+            return;
+        }
+
+        Note note = allNotes.findById(mutation.getId());
+        touched.add(note.getId());
+        Note edited;
+        switch (mutation.getType()) {
+            case UPDATE:
+                edited = mutation.getNote().newVersion();
+                edited.setId(note.getId());
+                contentChanged.add(note.getId());
+                break;
+            case SET_REMINDER:
+                edited = note.newVersion();
+                Reminder reminder = mutation.getReminder();
+                edited.setReminder(reminder != null ? reminder.copy() : null);
+                break;
+            case REMOVE_REMINDER:
+                edited = note.newVersion();
+                if (edited.getReminder() != null) {
+                    edited.getReminder().deactivate();
+                }
+                break;
+            default:
+                removed.add(allNotes.removeById(note.getId()));
+                return;
+        }
+        if (textArena != null) {
+            edited.useTextArena(textArena);
+        }
+        created.add(edited);
+        removed.add(allNotes.replace(edited));
+    }
+
+    // Index each touched note once, comparing the version before the batch with the one now in the list.
+    // The tag and fuzzy indexes publish the whole batch at the end, copying each bitmap it touches once.
+    private void indexBatch(NoteSnapshot before, Set<Integer> touched, Set<Integer> contentChanged,
+                            Set<Integer> addedIds) {
+        tagIndex.beginBatch();
+        fuzzyIndex.beginBatch();
+        try {
+            for (int id : touched) {
+                Note original = before.findById(id);
+                Note note = allNotes.findById(id);
+                // A note added in the batch under the id of one it deleted replaces that one outright
+                boolean replaced = original != null && addedIds.contains(id);
+                if (original != null && (note == null || replaced)) {
+                    indexDeleted(original, original.getTitle(), TitleTrie.rank(original));
+                } else if (original != null) {
+                    indexChanged(original, note, contentChanged.contains(id));
+                }
+                if (note != null && (original == null || replaced)) {
+                    indexAdded(note);
+                }
+            }
+        } finally {
+            tagIndex.endBatch();
+            fuzzyIndex.endBatch();
+        }
+    }
+
+    // Put the list and indexes back as they were before a failed batch. The notes that were in the
+    // list were never changed; added notes are handed back as they came: without the id the list
+    // gave them and with their text on the heap.
+    private void rollBack(NoteSnapshot before, int nextIdBefore, Set<Integer> touched, List<Note> added,
+                          Set<Note> numbered, List<Note> created, boolean indexing) {
+        dirty = new ChangeSet();
+        allNotes.restore(before, nextIdBefore);
+        for (int id : touched) {
+            Note original = before.findById(id);
+            // Deleting it in indexBatch took its text out of the arena
+            if (original != null && textArena != null) {
+                original.useTextArena(textArena);
+            }
+        }
+        for (Note note : created) {
+            note.useTextArena(null);
+        }
+
+        for (Note note : added) {
+            if (indexing) {
+                reminderDispatcher.cancel(note);
+            }
+            note.useTextArena(null);
+            if (numbered.contains(note)) {
+                note.setId(0);
+            }
+        }
+        if (indexing) {
+            rebuildIndexes();
+        }
+    }
+
+    private void indexAdded(Note note) {
+        if (note.getReminder() != null && note.getReminder().isActive()) {
+            activeReminders.insert(note);
         }
+        tagIndex.add(note);
+        searchIndex.add(note);
+        titleIndex.add(note.getTitle(), TitleTrie.rank(note));
+        fuzzyIndex.add(note);
+        reminderDispatcher.schedule(note);
+        markDirty(note);
+    }
+
+    // `note` is the new version of `existing`. Text and tags are re-indexed if `contentChanged`.
+    private void indexChanged(Note existing, Note note, boolean contentChanged) {
+        activeReminders.update(note);
+        if (contentChanged) {
+            tagIndex.update(note);
+            searchIndex.update(note);
+            fuzzyIndex.update(note);
+        }
+        titleIndex.replace(existing.getTitle(), TitleTrie.rank(existing), note.getTitle(), TitleTrie.rank(note));
+        reminderDispatcher.schedule(note);
+        markDirty(note);
+    }
+
+    // `title` and `rank` are what the note was filed under in the title index
+    private void indexDeleted(Note note, String title, long rank) {
+        activeReminders.remove(note);
+        tagIndex.remove(note.getId());
+        searchIndex.remove(note.getId());
+        titleIndex.remove(title, rank);
+        fuzzyIndex.remove(note.getId());
+        reminderDispatcher.cancel(note);
+        // Callers may still hold the note; give it its text back before freeing the arena copy
+        note.useTextArena(null);
+        dirty.delete(note.getId());
+    }
+
+    private void rebuildIndexes() {
+        activeReminders.rebuild(allNotes);
+        tagIndex.rebuild(allNotes);
+        titleIndex.rebuild(getAllNotes());
+        fuzzyIndex.rebuild(getAllNotes());
+        rebuildSearchIndex();
+        allNotes.forEach(reminderDispatcher::schedule);
+    }
+
+    // Bodies that were only in the store are read one at a time and dropped again once indexed, so a
+    // rebuild over a large store keeps memory flat and leaves the body cache holding what it held.
+    // Searches go on using the old index until the new one is complete.
+    private void rebuildSearchIndex() {
+        FullTextIndex rebuilt = new FullTextIndex();
+        allNotes.forEach(note -> {
+            boolean loaded = note.isBodyLoaded();
+            rebuilt.add(note);
+            if (!loaded) {
+                bodyCache.release(note);
+            }
+        });
+        searchIndex = rebuilt;
+    }
+
+    private void markDirty(Note note) {
+        dirty.upsert(note);
     }
 
-    private void saveNotes() {
+    // Hand the notes touched since the last call to the store; only those get written
+    private void saveDirty() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        ChangeSet changes = dirty;
+        dirty = new ChangeSet();
         try {
-            persistence.saveNotes(allNotes);
+            persistence.saveChanges(allNotes, changes);
         } catch (IOException e) {
             System.err.println("Error saving notes: " + e.getMessage());
             e.printStackTrace();
@@ -103,8 +698,38 @@ public class NotesManager {
 
     private void loadNotes() {
         try {
-            allNotes = persistence.loadNotes();
-            activeReminders.rebuild(allNotes);
+            long storeVersion = persistence.getStoreVersion();
+            IndexCheckpoint checkpoint = IndexCheckpoint.open(INDEX_CHECKPOINT_FILE, storeVersion);
+
+            // Without a checkpoint, reminder order is sorted per loaded part on the load workers, then merged
+            List<ReminderPriorityQueue.Partial> reminderParts = Collections.synchronizedList(new ArrayList<>());
+            allNotes = persistence.loadNotes(part -> {
+                if (checkpoint == null) {
+                    reminderParts.add(ReminderPriorityQueue.partial(part));
+                }
+            });
+            if (textArena != null) {
+                allNotes.forEach(note -> note.useTextArena(textArena));
+            }
+
+            if (checkpoint == null || !checkpoint.restore(allNotes, activeReminders, titleIndex, tagIndex)) {
+                if (checkpoint == null) {
+                    activeReminders.rebuild(reminderParts);
+                } else {
+                    activeReminders.rebuild(allNotes);
+                }
+                tagIndex.rebuild(allNotes);
+                titleIndex.rebuild(getAllNotes());
+            }
+            fuzzyIndex.rebuild(getAllNotes());
+
+            FullTextIndex saved = FullTextIndex.load(SEARCH_INDEX_FILE, storeVersion);
+            if (saved != null && saved.size() == allNotes.size()) {
+                searchIndex = saved;
+            } else {
+                rebuildSearchIndex();
+            }
+            allNotes.forEach(reminderDispatcher::schedule);
         } catch (IOException e) {
             System.err.println("Error loading notes: " + e.getMessage());
             e.printStackTrace();
@@ -112,7 +737,109 @@ public class NotesManager {
         }
     }
 
+    // Write every note to a JSON file in the notes.json format
+    public void exportToJson(File file) throws IOException {
+        new JSONPersistence(file.getPath()).saveNotes(allNotes);
+    }
+
+    // Add the notes from a JSON export as new notes; returns how many were imported
+    public int importFromJson(File file) throws IOException {
+        List<Note> imported = new ArrayList<>();
+        new JSONPersistence(file.getPath()).loadNotes().forEach(imported::add);
+
+        // The file is newest first; add oldest first so it keeps that order on top of the list
+        Collections.reverse(imported);
+        List<Mutation> adds = new ArrayList<>(imported.size());
+        for (Note source : imported) {
+            Note note = new Note(source.getTitle(), source.getMainText());
+            note.setTags(new ArrayList<>(source.getTags()));
+            note.setAiSummary(source.getAiSummary());
+            note.setReminder(source.getReminder());
+            adds.add(Mutation.add(note));
+        }
+        applyBatch(adds);
+        return imported.size();
+    }
+
+    // Write every note into `directory` as Markdown files, CSV or NDJSON, one note at a time (see NoteExporter).
+    // Works from a snapshot, so edits made meanwhile don't wait for it and don't show up in it.
+    public long exportNotes(Path directory, NoteExporter.Format format, int notesPerChunk, boolean gzip)
+            throws IOException {
+        return new NoteExporter(format, notesPerChunk, gzip).export(getSnapshot(), directory);
+    }
+
+    // Add every .md and .txt file under `directory` as a new note, reading files in parallel.
+    // Blocks until done; `listener` (may be null) is told the progress as it goes.
+    public ImportProgress importDirectory(Path directory, ImportListener listener) throws IOException {
+        return new DirectoryImporter(this).importFrom(directory, listener);
+    }
+
+    // Write out every pending change before returning
+    public void flush() {
+        try {
+            writeBehind.flush();
+        } catch (IOException e) {
+            System.err.println("Error saving notes: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Flush counters for tuning the write-behind window
+    public WriteBehindPersistence getWriteBehind() {
+        return writeBehind;
+    }
+
+    // Hit, miss and eviction counters for sizing the body cache budget
+    public BodyCachePersistence getBodyCache() {
+        return bodyCache;
+    }
+
+    // Off-heap text usage, or null when note text is kept on the heap
+    public TextArena getTextArena() {
+        return textArena;
+    }
+
     public void shutdown() {
-        saveNotes();
+        reminderDispatcher.shutdown();
+        try {
+            persistence.close();
+        } catch (IOException e) {
+            System.err.println("Error closing note store: " + e.getMessage());
+            e.printStackTrace();
+        }
+        saveIndexes();
+    }
+
+    /*
+        The indexes are written only here, at a clean shutdown. Every store advances its version
+        before it writes, so after a crash the saved indexes no longer match it and the next start
+        rebuilds them from the notes instead of loading them.
+    */
+    private void saveIndexes() {
+        long storeVersion = persistence.getStoreVersion();
+        if (storeVersion == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            writeIndexes(storeVersion);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeIndexes(long storeVersion) {
+        try {
+            searchIndex.save(SEARCH_INDEX_FILE, storeVersion);
+        } catch (IOException e) {
+            System.err.println("Error saving search index: " + e.getMessage());
+            e.printStackTrace();
+        }
+        try {
+            IndexCheckpoint.save(INDEX_CHECKPOINT_FILE, storeVersion, allNotes, activeReminders, titleIndex, tagIndex);
+        } catch (IOException e) {
+            System.err.println("Error saving index checkpoint: " + e.getMessage());
+            e.printStackTrace();
+        }
     }
 }
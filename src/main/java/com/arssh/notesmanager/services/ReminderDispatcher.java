@@ -0,0 +1,162 @@
+package com.arssh.notesmanager.services;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.structures.TimerBucket;
+import com.arssh.notesmanager.structures.TimerEntry;
+import com.arssh.notesmanager.structures.TimingWheel;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+
+/*
+    Fires ReminderListeners when a reminder's time arrives.
+
+    Scheduled reminders live in a hierarchical TimingWheel (100 ms ticks, 60 slots per level),
+    so scheduling and cancelling are O(1) however many reminders there are. One daemon thread
+    blocks on the wheel's DelayQueue until the next bucket is due, so an idle dispatcher does no
+    work. Reminders fire at most one tick early.
+
+    Reminders that are already past when scheduled are not fired; the UI shows them as overdue.
+*/
+public class ReminderDispatcher {
+    private static final long TICK_MS = 100;
+    private static final int WHEEL_SIZE = 60;
+
+    private final DelayQueue<TimerBucket> queue;
+    private final TimingWheel wheel;
+    private final Map<Integer, TimerEntry> entries;
+    private final List<ReminderListener> listeners;
+    private final ZoneId zone;
+    private final Thread worker;
+    private volatile boolean running;
+
+    // Guards the wheel and its buckets
+    private final Object lock = new Object();
+
+    public ReminderDispatcher() {
+        this.queue = new DelayQueue<>();
+        this.wheel = new TimingWheel(TICK_MS, WHEEL_SIZE, System.currentTimeMillis(), queue);
+        this.entries = new ConcurrentHashMap<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.zone = ZoneId.systemDefault();
+        this.worker = new Thread(this::run, "reminder-dispatcher");
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        if (!running) {
+            running = true;
+            worker.start();
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+
+    public void addListener(ReminderListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ReminderListener listener) {
+        listeners.remove(listener);
+    }
+
+    // (Re)schedule a note from its current reminder; drops it if the reminder is gone or inactive
+    public void schedule(Note note) {
+        boolean dueNow = false;
+
+        synchronized (lock) {
+            cancelLocked(note.getId());
+
+            Reminder reminder = note.getReminder();
+            if (reminder == null || !reminder.isActive()) {
+                return;
+            }
+
+            long dueMs = reminder.getTime().atZone(zone).toInstant().toEpochMilli();
+            if (dueMs < System.currentTimeMillis()) {
+                return;
+            }
+
+            TimerEntry entry = new TimerEntry(note, dueMs);
+            if (wheel.add(entry)) {
+                entries.put(note.getId(), entry);
+            } else {
+                dueNow = true;
+            }
+        }
+
+        if (dueNow) {
+            fire(note);
+        }
+    }
+
+    public void cancel(Note note) {
+        synchronized (lock) {
+            cancelLocked(note.getId());
+        }
+    }
+
+    public int scheduledCount() {
+        return entries.size();
+    }
+
+    private void cancelLocked(int noteId) {
+        TimerEntry existing = entries.remove(noteId);
+        if (existing != null) {
+            existing.cancel();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            TimerBucket bucket;
+            try {
+                // Blocks until the earliest bucket expires
+                bucket = queue.take();
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+                continue;
+            }
+
+            List<TimerEntry> due = new ArrayList<>();
+            synchronized (lock) {
+                while (bucket != null) {
+                    wheel.advanceClock(bucket.getExpiration());
+                    bucket.flush(entry -> {
+                        // Cascades into a finer wheel, or is due now
+                        if (!wheel.add(entry) && entries.remove(entry.note.getId(), entry)) {
+                            due.add(entry);
+                        }
+                    });
+                    bucket = queue.poll();
+                }
+            }
+
+            for (TimerEntry entry : due) {
+                fire(entry.note);
+            }
+        }
+    }
+
+    private void fire(Note note) {
+        for (ReminderListener listener : listeners) {
+            try {
+                listener.onReminderDue(note);
+            } catch (RuntimeException e) {
+                System.err.println("Reminder listener failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+}
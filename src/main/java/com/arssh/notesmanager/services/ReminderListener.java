@@ -0,0 +1,9 @@
+package com.arssh.notesmanager.services;
+
+import com.arssh.notesmanager.Note;
+
+// Called when a note's reminder time arrives. May be called from a background thread.
+@FunctionalInterface
+public interface ReminderListener {
+    void onReminderDue(Note note);
+}
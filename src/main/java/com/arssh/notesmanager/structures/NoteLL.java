@@ -1,56 +1,229 @@
 package com.arssh.notesmanager.structures;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import com.arssh.notesmanager.Note;
 
+/*
+    The list of notes, newest first: add() puts a note at the front, addLast() at the back.
+
+    The list itself is a NoteSnapshot, a pair of persistent trees (position -> note, id -> note)
+    swapped for a new version on every change. Lookups by id, forEach and snapshot() read the
+    current version without locking and never see a change half done; a change costs O(log n)
+    and leaves older snapshots as they were. Titles are indexed separately (case-folded, titles
+    are not unique) for the current version only.
+
+    Changes are synchronized with each other and with lookups by title.
+*/
 public class NoteLL {
-    private NoteNode head;
+    private volatile NoteSnapshot current;
+    private int nextId;
+
+    // Position keys: smaller means closer to the head, so duplicate titles resolve to the first note
+    private long headOrder;
+    private long tailOrder;
+
+    private final Map<Integer, Long> orderById;
+    private final Map<String, List<Note>> byTitle;
 
     public NoteLL(){
-        this.head = null;
+        this.current = NoteSnapshot.EMPTY;
+        this.nextId = 1;
+        this.orderById = new HashMap<>();
+        this.byTitle = new HashMap<>();
     }
 
-    public void add(Note note){
-        NoteNode newNoteNode = new NoteNode(note);
-        newNoteNode.next = head;
-        head = newNoteNode; 
+    // Insert at the front
+    public synchronized void add(Note note){
+        insert(note, --headOrder);
     }
 
-    public boolean remove(String title){
-        NoteNode prev = null;
-        NoteNode curr = head;
+    // Insert at the back, used when loading so the stored order is kept
+    public synchronized void addLast(Note note){
+        insert(note, tailOrder++);
+    }
+
+    // addLast for each note in turn; into an empty list the trees are built in one go, O(n)
+    public synchronized void addAllLast(List<Note> notes){
+        if (!orderById.isEmpty()) {
+            notes.forEach(this::addLast);
+            return;
+        }
 
-        while (curr != null){
-            if (((Note)curr.note).getTitle().equalsIgnoreCase(title)) {
-                if (prev == null) {
-                    head = curr.next;
-                }
-                else {prev.next = curr.next;}
-                return true;
+        long[] orders = new long[notes.size()];
+        long[] idAndIndex = new long[notes.size()];
+        try {
+            for (int i = 0; i < notes.size(); i++) {
+                Note note = notes.get(i);
+                assignId(note);
+                orders[i] = tailOrder++;
+                orderById.put(note.getId(), orders[i]);
+                indexTitle(note);
+                idAndIndex[i] = ((long) note.getId() << 32) | i;
             }
-            curr = curr.next;
+        } catch (IllegalArgumentException e) {
+            // Leave the list empty rather than with indexes for notes it doesn't hold
+            orderById.clear();
+            byTitle.clear();
+            tailOrder = 0;
+            throw e;
         }
-        return false;
+
+        Arrays.sort(idAndIndex);
+        long[] ids = new long[notes.size()];
+        List<Note> notesById = new ArrayList<>(notes.size());
+        for (int i = 0; i < idAndIndex.length; i++) {
+            ids[i] = idAndIndex[i] >>> 32;
+            notesById.add(notes.get((int) idAndIndex[i]));
+        }
+        current = new NoteSnapshot(PersistentTree.ofSorted(orders, notes), PersistentTree.ofSorted(ids, notesById),
+                current.getVersion() + 1);
     }
 
-    public Note findByTitle(String title){
-        NoteNode curr = head;
-        while (curr != null){
-            if (((Note)curr.note).getTitle().equalsIgnoreCase(title)){
-                return (Note) curr.note;
-            }
-            curr = curr.next;
+    public synchronized boolean remove(String title){
+        Note note = firstWithTitle(title);
+        if (note == null) {
+            return false;
+        }
+        removeById(note.getId());
+        return true;
+    }
+
+    public synchronized Note removeById(int id){
+        Long order = orderById.remove(id);
+        if (order == null) {
+            return null;
         }
-        return null;
+        Note note = current.findById(id);
+        current = current.without(order, id);
+        unindexTitle(note);
+        return note;
+    }
+
+    public synchronized Note findByTitle(String title){
+        return firstWithTitle(title);
+    }
+
+    public Note findById(int id){
+        return current.findById(id);
+    }
+
+    public boolean contains(int id){
+        return current.contains(id);
+    }
+
+    // Swap the stored note that has the same id as `note`, keeping its position in the list
+    public synchronized Note replace(Note note){
+        Long order = orderById.get(note.getId());
+        if (order == null) {
+            return null;
+        }
+        Note old = current.findById(note.getId());
+        unindexTitle(old);
+        current = current.with(order, note);
+        indexTitle(note);
+        return old;
+    }
+
+    public int size(){
+        return current.size();
+    }
+
+    public boolean isEmpty(){
+        return current.isEmpty();
     }
 
+    // Walks the version current at the call; changes made meanwhile don't affect it
     public void forEach(Consumer<Note> action) {
-        NoteNode curr = head;
-        while (curr != null) {
-            action.accept((Note) curr.note);
-            curr = curr.next;
+        current.forEach(action);
+    }
+
+    // The current version, O(1)
+    public NoteSnapshot snapshot() {
+        return current;
+    }
+
+    // Id the next note added without one will get
+    public synchronized int getNextId() {
+        return nextId;
+    }
+
+    // Go back to an earlier snapshot of this list, e.g. to undo changes that could not be completed.
+    // Title lookups are rebuilt from the notes' titles as they are now, O(n).
+    public synchronized void restore(NoteSnapshot snapshot) {
+        restore(snapshot, nextId);
+    }
+
+    // restore, also putting the id counter back to what getNextId returned at the time of the
+    // snapshot; the caller clears the ids given to notes added since, so none is handed out twice
+    public synchronized void restore(NoteSnapshot snapshot, int nextId) {
+        this.nextId = nextId;
+        orderById.clear();
+        byTitle.clear();
+        snapshot.forEachWithOrder((order, note) -> {
+            orderById.put(note.getId(), order);
+            indexTitle(note);
+        });
+        current = snapshot.withVersion(current.getVersion() + 1);
+    }
+
+    private void insert(Note note, long order){
+        assignId(note);
+        orderById.put(note.getId(), order);
+        current = current.with(order, note);
+        indexTitle(note);
+    }
+
+    private void assignId(Note note){
+        if (note.getId() == 0) {
+            note.setId(nextId++);
+        } else if (orderById.containsKey(note.getId())) {
+            throw new IllegalArgumentException("Duplicate note id " + note.getId());
+        } else {
+            nextId = Math.max(nextId, note.getId() + 1);
         }
     }
 
+    private void indexTitle(Note note){
+        byTitle.computeIfAbsent(titleKey(note.getTitle()), k -> new ArrayList<>(1)).add(note);
+    }
+
+    private void unindexTitle(Note note){
+        String key = titleKey(note.getTitle());
+        List<Note> notes = byTitle.get(key);
+        if (notes != null) {
+            notes.remove(note);
+            if (notes.isEmpty()) {
+                byTitle.remove(key);
+            }
+        }
+    }
+
+    private Note firstWithTitle(String title){
+        List<Note> notes = byTitle.get(titleKey(title));
+        if (notes == null) {
+            return null;
+        }
+        Note first = null;
+        long firstOrder = 0;
+        for (Note note : notes) {
+            long order = orderById.get(note.getId());
+            if (first == null || order < firstOrder) {
+                first = note;
+                firstOrder = order;
+            }
+        }
+        return first;
+    }
+
+    private static String titleKey(String title){
+        return title == null ? "" : title.toLowerCase(Locale.ROOT);
+    }
+
 }
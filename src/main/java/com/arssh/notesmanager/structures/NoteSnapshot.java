@@ -0,0 +1,114 @@
+package com.arssh.notesmanager.structures;
+
+import com.arssh.notesmanager.Note;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+    One version of the notes in a NoteLL: which notes there were and in what order.
+
+    Taking one costs O(1) and it never changes afterwards, whatever happens to the list, so it
+    can be read from any thread without locking and kept for undo or to compare with a later
+    version. Notes are not changed once stored: an edit path-copies a new version of the note
+    into the trees, so a snapshot's notes keep the title, text, tags and reminder they had.
+*/
+public final class NoteSnapshot {
+    static final NoteSnapshot EMPTY = new NoteSnapshot(PersistentTree.empty(), PersistentTree.empty(), 0);
+
+    // List order -> note, and id -> note
+    private final PersistentTree<Note> byOrder;
+    private final PersistentTree<Note> byId;
+    private final long version;
+
+    NoteSnapshot(PersistentTree<Note> byOrder, PersistentTree<Note> byId, long version) {
+        this.byOrder = byOrder;
+        this.byId = byId;
+        this.version = version;
+    }
+
+    // Counts the changes made to the list; a later snapshot of the same list has a larger version
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return byOrder.size();
+    }
+
+    public boolean isEmpty() {
+        return byOrder.isEmpty();
+    }
+
+    public Note findById(int id) {
+        return byId.get(id);
+    }
+
+    public boolean contains(int id) {
+        return byId.containsKey(id);
+    }
+
+    // Up to `limit` notes with ids above `afterId`, in id order
+    public List<Note> pageById(int afterId, int limit) {
+        List<Note> page = new ArrayList<>(Math.min(limit, 64));
+        Iterator<Note> it = byId.iteratorFrom((long) afterId + 1);
+        while (page.size() < limit && it.hasNext()) {
+            page.add(it.next());
+        }
+        return page;
+    }
+
+    // Note at `index` in list order, O(log n)
+    public Note get(int index) {
+        return byOrder.getAt(index);
+    }
+
+    public void forEach(Consumer<Note> action) {
+        for (Note note : byOrder) {
+            action.accept(note);
+        }
+    }
+
+    // Read-only List view in list order; nothing is copied
+    public List<Note> asList() {
+        return new NotesView();
+    }
+
+    // Same notes under a new version number
+    NoteSnapshot withVersion(long newVersion) {
+        return new NoteSnapshot(byOrder, byId, newVersion);
+    }
+
+    void forEachWithOrder(PersistentTree.EntryVisitor<Note> visitor) {
+        byOrder.forEachEntry(visitor);
+    }
+
+    NoteSnapshot with(long order, Note note) {
+        return new NoteSnapshot(byOrder.put(order, note), byId.put(note.getId(), note), version + 1);
+    }
+
+    NoteSnapshot without(long order, int id) {
+        return new NoteSnapshot(byOrder.remove(order), byId.remove(id), version + 1);
+    }
+
+    private final class NotesView extends AbstractList<Note> {
+        @Override
+        public Note get(int index) {
+            return byOrder.getAt(index);
+        }
+
+        @Override
+        public int size() {
+            return byOrder.size();
+        }
+
+        // In-order walk instead of a lookup per element
+        @Override
+        public Iterator<Note> iterator() {
+            return byOrder.iterator();
+        }
+    }
+}
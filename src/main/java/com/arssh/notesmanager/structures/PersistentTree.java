@@ -0,0 +1,255 @@
+package com.arssh.notesmanager.structures;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*
+    Immutable sorted map from long keys to values: an AVL tree where every node also counts the
+    nodes below it, so the i-th entry can be found in O(log n).
+
+    put and remove never change a tree. They return a new one that shares every node except the
+    O(log n) on the path to the change, so keeping old versions around is cheap and a version
+    stays valid however the newer ones change.
+*/
+public final class PersistentTree<V> implements Iterable<V> {
+    private static final PersistentTree<Object> EMPTY = new PersistentTree<>(null);
+
+    private final Node<V> root;
+
+    public interface EntryVisitor<V> {
+        void visit(long key, V value);
+    }
+
+    private PersistentTree(Node<V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentTree<V> empty() {
+        return (PersistentTree<V>) EMPTY;
+    }
+
+    // Tree mapping keys[i] to values.get(i), built in O(n); keys must be ascending
+    public static <V> PersistentTree<V> ofSorted(long[] keys, List<V> values) {
+        return new PersistentTree<>(build(keys, values, 0, keys.length));
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public V get(long key) {
+        Node<V> node = root;
+        while (node != null) {
+            if (key < node.key) {
+                node = node.left;
+            } else if (key > node.key) {
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        Node<V> node = root;
+        while (node != null && node.key != key) {
+            node = key < node.key ? node.left : node.right;
+        }
+        return node != null;
+    }
+
+    // Value with `index` smaller keys in the tree
+    public V getAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+        }
+        Node<V> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+    }
+
+    // Tree with `key` mapped to `value`, replacing any earlier value
+    public PersistentTree<V> put(long key, V value) {
+        return new PersistentTree<>(put(root, key, value));
+    }
+
+    // Tree without `key`; this tree itself if the key isn't there
+    public PersistentTree<V> remove(long key) {
+        if (!containsKey(key)) {
+            return this;
+        }
+        return new PersistentTree<>(remove(root, key));
+    }
+
+    // Values in key order
+    @Override
+    public Iterator<V> iterator() {
+        return iteratorFrom(Long.MIN_VALUE);
+    }
+
+    // Values whose key is `from` or above, in key order; finding the first costs O(log n)
+    public Iterator<V> iteratorFrom(long from) {
+        return new Iterator<V>() {
+            // Nodes whose value and right subtree are still to come; at most the tree height
+            private final ArrayDeque<Node<V>> path = new ArrayDeque<>();
+
+            {
+                Node<V> node = root;
+                while (node != null) {
+                    if (node.key >= from) {
+                        path.push(node);
+                        node = node.left;
+                    } else {
+                        node = node.right;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public V next() {
+                if (path.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node<V> node = path.pop();
+                pushLeft(node.right);
+                return node.value;
+            }
+
+            private void pushLeft(Node<V> node) {
+                while (node != null) {
+                    path.push(node);
+                    node = node.left;
+                }
+            }
+        };
+    }
+
+    // Keys and values in key order
+    public void forEachEntry(EntryVisitor<V> visitor) {
+        forEachEntry(root, visitor);
+    }
+
+    private static <V> void forEachEntry(Node<V> node, EntryVisitor<V> visitor) {
+        // Recursion depth is the tree height, O(log n)
+        while (node != null) {
+            forEachEntry(node.left, visitor);
+            visitor.visit(node.key, node.value);
+            node = node.right;
+        }
+    }
+
+    private static <V> Node<V> build(long[] keys, List<V> values, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        return new Node<>(keys[mid], values.get(mid), build(keys, values, from, mid), build(keys, values, mid + 1, to));
+    }
+
+    private static <V> Node<V> put(Node<V> node, long key, V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        if (key < node.key) {
+            return balance(node.key, node.value, put(node.left, key, value), node.right);
+        }
+        if (key > node.key) {
+            return balance(node.key, node.value, node.left, put(node.right, key, value));
+        }
+        return new Node<>(key, value, node.left, node.right);
+    }
+
+    // Caller has checked that `key` is in the tree
+    private static <V> Node<V> remove(Node<V> node, long key) {
+        if (key < node.key) {
+            return balance(node.key, node.value, remove(node.left, key), node.right);
+        }
+        if (key > node.key) {
+            return balance(node.key, node.value, node.left, remove(node.right, key));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node<V> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, successor.value, node.left, remove(node.right, successor.key));
+    }
+
+    // New node for (key, value) over two subtrees whose heights differ by at most 2, rotated back into AVL shape
+    private static <V> Node<V> balance(long key, V value, Node<V> left, Node<V> right) {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            }
+            Node<V> pivot = left.right;
+            return new Node<>(pivot.key, pivot.value,
+                    new Node<>(left.key, left.value, left.left, pivot.left),
+                    new Node<>(key, value, pivot.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            }
+            Node<V> pivot = right.left;
+            return new Node<>(pivot.key, pivot.value,
+                    new Node<>(key, value, left, pivot.left),
+                    new Node<>(right.key, right.value, pivot.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static final class Node<V> {
+        final long key;
+        final V value;
+        final Node<V> left;
+        final Node<V> right;
+        final int size;
+        final int height;
+
+        Node(long key, V value, Node<V> left, Node<V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+}
@@ -1,96 +1,252 @@
 package com.arssh.notesmanager.structures;
 
 import com.arssh.notesmanager.Note;
-import com.arssh.notesmanager.Reminder;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+/*
+    Ordered index of notes with active reminders.
 
+    Notes are kept in a skip list keyed by (time, -priority, id): earliest time first, then
+    higher priority, with the id as a tie-breaker so every key is unique. The next due reminder
+    is the first entry (O(1)) and the top N is a plain walk from the front, so reading never
+    mutates the index and is safe alongside a writer.
+
+    We also remember the key each note was stored under. An edited note is a new Note with the
+    same id, so that is the only way to find the old entry once the time or priority has changed.
+*/
 public class ReminderPriorityQueue {
-    private PriorityQueue<Note> queue;
+    private volatile ConcurrentNavigableMap<ReminderKey, Note> index;
+    private volatile Map<Integer, ReminderKey> keys;
 
     public ReminderPriorityQueue() {
-        // Custom comparator: sort by reminder time (earliest first), then by priority (higher first)
-        this.queue = new PriorityQueue<>(new Comparator<Note>() {
-            @Override
-            public int compare(Note n1, Note n2) {
-                Reminder r1 = n1.getReminder();
-                Reminder r2 = n2.getReminder();
-
-                // Compare by time first (earlier time has higher priority)
-                int timeComparison = r1.getTime().compareTo(r2.getTime());
-                if (timeComparison != 0) {
-                    return timeComparison;
-                }
-
-                // If times are equal, compare by priority (higher priority first)
-                return Integer.compare(r2.getPriority(), r1.getPriority());
-            }
-        });
+        this.index = new ConcurrentSkipListMap<>();
+        this.keys = new ConcurrentHashMap<>();
     }
 
     // Add note if it has an active reminder
     public void insert(Note note) {
-        if (note.getReminder() != null && note.getReminder().isActive()) {
-            queue.offer(note);
+        if (!hasActiveReminder(note)) {
+            return;
+        }
+
+        ReminderKey key = new ReminderKey(note);
+        ReminderKey old = keys.put(note.getId(), key);
+        if (old != null && !old.equals(key)) {
+            index.remove(old);
+        }
+        index.put(key, note);
+    }
+
+    // Re-position a note after its reminder changed; adds or drops it if it became (in)active
+    public void update(Note note) {
+        if (hasActiveReminder(note)) {
+            insert(note);
+        } else {
+            remove(note);
         }
     }
 
     // View next reminder without removing
     public Note peek() {
-        return queue.peek();
+        Map.Entry<ReminderKey, Note> first = index.firstEntry();
+        return first == null ? null : first.getValue();
     }
 
     // Remove and return next reminder
     public Note poll() {
-        return queue.poll();
+        Map.Entry<ReminderKey, Note> first = index.pollFirstEntry();
+        if (first == null) {
+            return null;
+        }
+        keys.remove(first.getKey().id, first.getKey());
+        return first.getValue();
     }
 
     // Return queue size
     public int size() {
-        return queue.size();
+        return keys.size();
     }
 
     // Check if empty
     public boolean isEmpty() {
-        return queue.isEmpty();
+        return index.isEmpty();
     }
 
-    // Get top N reminders (non-destructive)
-    public List<Note> getUpcoming(int n) {
-        List<Note> upcoming = new ArrayList<>();
-        List<Note> temp = new ArrayList<>();
+    public boolean contains(Note note) {
+        return keys.containsKey(note.getId());
+    }
 
-        // Extract up to n notes
-        for (int i = 0; i < n && !queue.isEmpty(); i++) {
-            Note note = queue.poll();
-            upcoming.add(note);
-            temp.add(note);
+    // Get top N reminders by walking the index in order (non-destructive)
+    public List<Note> getUpcoming(int n) {
+        List<Note> upcoming = new ArrayList<>(Math.min(n, 64));
+        Iterator<Note> it = index.values().iterator();
+        while (upcoming.size() < n && it.hasNext()) {
+            upcoming.add(it.next());
         }
+        return upcoming;
+    }
 
-        // Re-insert the notes back into the queue
-        for (Note note : temp) {
-            queue.offer(note);
+    // Up to `limit` reminders due in [from, to], in the same order as getUpcoming
+    public List<Note> between(LocalDateTime from, LocalDateTime to, int limit) {
+        List<Note> due = new ArrayList<>(Math.min(limit, 64));
+        if (from.isAfter(to)) {
+            return due;
         }
-
-        return upcoming;
+        // Highest priority and lowest id sort first at a time, lowest priority and highest id last
+        ReminderKey first = new ReminderKey(from, Integer.MAX_VALUE, Integer.MIN_VALUE);
+        ReminderKey last = new ReminderKey(to, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        Iterator<Note> it = index.subMap(first, true, last, true).values().iterator();
+        while (due.size() < limit && it.hasNext()) {
+            due.add(it.next());
+        }
+        return due;
     }
 
     // Reconstruct queue from note list
     public void rebuild(NoteLL notes) {
-        queue.clear();
+        ConcurrentNavigableMap<ReminderKey, Note> newIndex = new ConcurrentSkipListMap<>();
+        Map<Integer, ReminderKey> newKeys = new ConcurrentHashMap<>();
         notes.forEach(note -> {
-            if (note.getReminder() != null && note.getReminder().isActive()) {
-                queue.offer(note);
+            if (hasActiveReminder(note)) {
+                ReminderKey key = new ReminderKey(note);
+                newKeys.put(note.getId(), key);
+                newIndex.put(key, note);
             }
         });
+
+        // Swap both at once so readers see either the old or the new index
+        this.keys = newKeys;
+        this.index = newIndex;
+    }
+
+    // Sorted active reminders of one part of the notes. Built on any thread, then merged by rebuild(List).
+    public static Partial partial(Iterable<Note> notes) {
+        List<ReminderKey> keys = new ArrayList<>();
+        Map<ReminderKey, Note> byKey = new HashMap<>();
+        for (Note note : notes) {
+            if (hasActiveReminder(note)) {
+                ReminderKey key = new ReminderKey(note);
+                keys.add(key);
+                byKey.put(key, note);
+            }
+        }
+        keys.sort(null);
+        Note[] sorted = new Note[keys.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = byKey.get(keys.get(i));
+        }
+        return new Partial(keys.toArray(new ReminderKey[0]), sorted);
+    }
+
+    // Reconstruct queue by merging partials whose notes don't overlap
+    public void rebuild(List<Partial> partials) {
+        ConcurrentNavigableMap<ReminderKey, Note> newIndex = new ConcurrentSkipListMap<>();
+        Map<Integer, ReminderKey> newKeys = new ConcurrentHashMap<>();
+
+        // {partial, position} of the next smallest key of each partial
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) ->
+                partials.get(a[0]).keys[a[1]].compareTo(partials.get(b[0]).keys[b[1]]));
+        for (int p = 0; p < partials.size(); p++) {
+            if (partials.get(p).keys.length > 0) {
+                heads.add(new int[] { p, 0 });
+            }
+        }
+        // Keys arrive in ascending order, so every insert lands at the tail of the skip list
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            Partial partial = partials.get(head[0]);
+            ReminderKey key = partial.keys[head[1]];
+            newKeys.put(key.id, key);
+            newIndex.put(key, partial.notes[head[1]]);
+            if (++head[1] < partial.keys.length) {
+                heads.add(head);
+            }
+        }
+
+        this.keys = newKeys;
+        this.index = newIndex;
     }
 
     // Remove specific note from queue
     public void remove(Note note) {
-        queue.remove(note);
+        ReminderKey key = keys.remove(note.getId());
+        if (key != null) {
+            index.remove(key);
+        }
+    }
+
+    private static boolean hasActiveReminder(Note note) {
+        return note.getReminder() != null && note.getReminder().isActive();
+    }
+
+    public static final class Partial {
+        private final ReminderKey[] keys;
+        private final Note[] notes;
+
+        private Partial(ReminderKey[] keys, Note[] notes) {
+            this.keys = keys;
+            this.notes = notes;
+        }
+
+        public int size() {
+            return keys.length;
+        }
+    }
+
+    // Snapshot of the ordering fields taken when the note was indexed
+    private static final class ReminderKey implements Comparable<ReminderKey> {
+        private final LocalDateTime time;
+        private final int priority;
+        private final int id;
+
+        ReminderKey(Note note) {
+            this(note.getReminder().getTime(), note.getReminder().getPriority(), note.getId());
+        }
+
+        ReminderKey(LocalDateTime time, int priority, int id) {
+            this.time = time;
+            this.priority = priority;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(ReminderKey other) {
+            // Compare by time first (earlier time has higher priority)
+            int timeComparison = time.compareTo(other.time);
+            if (timeComparison != 0) {
+                return timeComparison;
+            }
+
+            // If times are equal, compare by priority (higher priority first)
+            int priorityComparison = Integer.compare(other.priority, priority);
+            if (priorityComparison != 0) {
+                return priorityComparison;
+            }
+            return Integer.compare(id, other.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ReminderKey)) {
+                return false;
+            }
+            ReminderKey other = (ReminderKey) o;
+            return id == other.id && priority == other.priority && time.equals(other.time);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * time.hashCode() + priority) + id;
+        }
     }
 }
@@ -0,0 +1,87 @@
+package com.arssh.notesmanager.structures;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Two-way mapping between tag strings and small dense ids (0, 1, 2, ...).
+    Tags are kept exactly as written; ids are never reused.
+
+    Safe to share between threads: lookups don't lock, only adding a new tag does.
+    global() is the dictionary notes keep their tags in; stores have their own for their file ids.
+*/
+public class TagDictionary {
+    private static final TagDictionary GLOBAL = new TagDictionary();
+
+    private final Map<String, Integer> ids;
+    // Index is the id; replaced by a bigger copy when full, so readers never see it change under them
+    private volatile String[] tags;
+    private int size;
+
+    public TagDictionary() {
+        this.ids = new ConcurrentHashMap<>();
+        this.tags = new String[16];
+    }
+
+    // Dictionary shared by every note in the app
+    public static TagDictionary global() {
+        return GLOBAL;
+    }
+
+    // Id of `tag`, assigning the next free one if it is new
+    public int intern(String tag) {
+        Integer id = ids.get(tag);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(tag);
+            if (id != null) {
+                return id;
+            }
+            int newId = size;
+            store(newId, tag);
+            return newId;
+        }
+    }
+
+    // Restore an entry read back from disk
+    public synchronized void put(int id, String tag) {
+        store(id, tag);
+    }
+
+    public int idOf(String tag) {
+        Integer id = ids.get(tag);
+        return id == null ? -1 : id;
+    }
+
+    public String get(int id) {
+        String[] current = tags;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        ids.clear();
+        tags = new String[16];
+        size = 0;
+    }
+
+    // Caller holds the lock; the string goes in before the id is published through `ids`
+    private void store(int id, String tag) {
+        String[] current = tags;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+            current[id] = tag;
+            tags = current;
+        } else {
+            current[id] = tag;
+        }
+        size = Math.max(size, id + 1);
+        ids.put(tag, id);
+    }
+}
@@ -0,0 +1,319 @@
+package com.arssh.notesmanager.structures;
+
+import com.arssh.notesmanager.Note;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    Inverted index from tag to the ids of the notes carrying it, stored as RoaringBitmaps.
+
+    Tags are matched case-insensitively. The index remembers which tags it filed each note under,
+    so an edit can be applied even after the note's tag list was replaced.
+
+    One writer at a time changes the index while any number of readers query it without locking.
+    The tag map and bitmaps are never changed once published: a change copies the map (one entry
+    per distinct tag) and the bitmaps it touches, sharing their untouched chunks, and publishes
+    them as a new State. A query is evaluated against one State, so it sees each change whole.
+    Between beginBatch and endBatch the changes pile up in one unpublished copy instead, so a
+    bitmap is copied once however many notes of the batch touch it, and queries see the batch
+    whole too. The per-note view is only used by the writer.
+*/
+public class TagIndex {
+    private volatile State state;
+    private final Map<Integer, Set<String>> tagsById;
+    // The batch's changes until endBatch publishes them; null outside a batch
+    private Changes batch;
+
+    public TagIndex() {
+        this.state = new State(new HashMap<>(), new RoaringBitmap());
+        this.tagsById = new HashMap<>();
+    }
+
+    // Read-only view of one State, for evaluating a query
+    private TagIndex(State state) {
+        this.state = state;
+        this.tagsById = null;
+    }
+
+    public void add(Note note) {
+        if (tagsById.containsKey(note.getId())) {
+            update(note);
+            return;
+        }
+        Set<String> tags = keysOf(note);
+        tagsById.put(note.getId(), tags);
+        Changes changes = changes();
+        for (String tag : tags) {
+            changes.file(tag, note.getId());
+        }
+        changes.addId(note.getId());
+        publish(changes);
+    }
+
+    // Re-file a note whose tags may have changed; only the tags it gained or lost are touched
+    public void update(Note note) {
+        int id = note.getId();
+        Set<String> old = tagsById.get(id);
+        if (old == null) {
+            add(note);
+            return;
+        }
+        Set<String> tags = keysOf(note);
+        tagsById.put(id, tags);
+        if (tags.equals(old)) {
+            return;
+        }
+        Changes changes = changes();
+        for (String tag : tags) {
+            if (!old.contains(tag)) {
+                changes.file(tag, id);
+            }
+        }
+        for (String tag : old) {
+            if (!tags.contains(tag)) {
+                changes.unfile(tag, id);
+            }
+        }
+        publish(changes);
+    }
+
+    public void remove(int id) {
+        Set<String> tags = tagsById.remove(id);
+        if (tags == null) {
+            return;
+        }
+
+        Changes changes = changes();
+        for (String tag : tags) {
+            changes.unfile(tag, id);
+        }
+        changes.removeId(id);
+        publish(changes);
+    }
+
+    // Hold back the changes that follow until endBatch, and publish them as one State
+    public void beginBatch() {
+        if (batch == null) {
+            batch = new Changes(state, true);
+        }
+    }
+
+    public void endBatch() {
+        Changes changes = batch;
+        batch = null;
+        if (changes != null) {
+            publish(changes);
+        }
+    }
+
+    public void rebuild(NoteLL notes) {
+        batch = null;
+        Map<String, RoaringBitmap> byTag = new HashMap<>();
+        RoaringBitmap allIds = new RoaringBitmap();
+        tagsById.clear();
+        notes.forEach(note -> {
+            Set<String> tags = keysOf(note);
+            tagsById.put(note.getId(), tags);
+            allIds.add(note.getId());
+            for (String tag : tags) {
+                byTag.computeIfAbsent(tag, k -> new RoaringBitmap()).add(note.getId());
+            }
+        });
+        state = new State(byTag, allIds);
+    }
+
+    // Ids of the notes carrying tag; the returned bitmap must not be modified
+    public RoaringBitmap idsWithTag(String tag) {
+        RoaringBitmap ids = state.byTag.get(tagKey(tag));
+        return ids == null ? new RoaringBitmap() : ids;
+    }
+
+    // Ids of every indexed note, used as the universe for NOT
+    public RoaringBitmap allIds() {
+        return state.allIds;
+    }
+
+    public RoaringBitmap query(TagQuery query) {
+        return query.evaluate(new TagIndex(state));
+    }
+
+    public int countWithTag(String tag) {
+        RoaringBitmap ids = state.byTag.get(tagKey(tag));
+        return ids == null ? 0 : ids.cardinality();
+    }
+
+    public Set<String> tags() {
+        return Collections.unmodifiableSet(state.byTag.keySet());
+    }
+
+    // Write every tag and its ids; the per-note view is derived again by readFrom
+    public void writeTo(DataOutput out) throws IOException {
+        State current = state;
+        writeIds(out, current.allIds);
+        out.writeInt(current.byTag.size());
+        for (Map.Entry<String, RoaringBitmap> entry : current.byTag.entrySet()) {
+            out.writeInt(entry.getKey().length());
+            out.writeChars(entry.getKey());
+            writeIds(out, entry.getValue());
+        }
+    }
+
+    // Replace the contents with an index written by writeTo
+    public void readFrom(ByteBuffer in) {
+        batch = null;
+        tagsById.clear();
+        RoaringBitmap ids = readIds(in);
+        ids.forEach(id -> tagsById.put(id, new LinkedHashSet<>()));
+
+        Map<String, RoaringBitmap> tags = new HashMap<>();
+        int tagCount = in.getInt();
+        for (int t = 0; t < tagCount; t++) {
+            char[] chars = new char[in.getInt()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = in.getChar();
+            }
+            String tag = new String(chars);
+            RoaringBitmap tagIds = readIds(in);
+            tags.put(tag, tagIds);
+            tagIds.forEach(id -> tagsById.computeIfAbsent(id, k -> new LinkedHashSet<>()).add(tag));
+        }
+        state = new State(tags, ids);
+    }
+
+    private static void writeIds(DataOutput out, RoaringBitmap ids) throws IOException {
+        int[] values = ids.toArray();
+        out.writeInt(values.length);
+        for (int id : values) {
+            out.writeInt(id);
+        }
+    }
+
+    private static RoaringBitmap readIds(ByteBuffer in) {
+        RoaringBitmap ids = new RoaringBitmap();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            ids.add(in.getInt());
+        }
+        return ids;
+    }
+
+    private Changes changes() {
+        return batch != null ? batch : new Changes(state, false);
+    }
+
+    private void publish(Changes changes) {
+        if (changes != batch) {
+            state = new State(changes.byTag, changes.allIds);
+        }
+    }
+
+    private static Set<String> keysOf(Note note) {
+        Set<String> tags = new LinkedHashSet<>();
+        for (String tag : note.getTags()) {
+            tags.add(tagKey(tag));
+        }
+        return tags;
+    }
+
+    static String tagKey(String tag) {
+        return tag.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Every tag's ids and the ids of all notes, as of one change
+    private static final class State {
+        final Map<String, RoaringBitmap> byTag;
+        final RoaringBitmap allIds;
+
+        State(Map<String, RoaringBitmap> byTag, RoaringBitmap allIds) {
+            this.byTag = byTag;
+            this.allIds = allIds;
+        }
+    }
+
+    /*
+        A copy of the tag map with changes applied to it. Made for one change, it replaces each
+        bitmap it touches with a copy; made for a batch, it copies a bitmap the first time and
+        changes that copy in place afterwards. Nothing in it is seen by readers until published.
+    */
+    private static final class Changes {
+        final Map<String, RoaringBitmap> byTag;
+        RoaringBitmap allIds;
+        final boolean batch;
+        // Bitmaps this batch has copied, and so may change in place
+        final Set<String> owned = new HashSet<>();
+        boolean ownsAllIds;
+
+        Changes(State state, boolean batch) {
+            this.byTag = new HashMap<>(state.byTag);
+            this.allIds = state.allIds;
+            this.batch = batch;
+        }
+
+        void file(String tag, int id) {
+            RoaringBitmap ids = byTag.get(tag);
+            if (!batch) {
+                byTag.put(tag, ids == null ? RoaringBitmap.of(id) : ids.with(id));
+            } else if (owned.add(tag)) {
+                RoaringBitmap copy = ids == null ? new RoaringBitmap() : ids.copy();
+                copy.add(id);
+                byTag.put(tag, copy);
+            } else {
+                ids.add(id);
+            }
+        }
+
+        void unfile(String tag, int id) {
+            RoaringBitmap ids = byTag.get(tag);
+            if (ids == null) {
+                return;
+            }
+            RoaringBitmap left;
+            if (!batch) {
+                left = ids.without(id);
+            } else {
+                left = owned.add(tag) ? ids.copy() : ids;
+                left.remove(id);
+            }
+            if (left.isEmpty()) {
+                byTag.remove(tag);
+                owned.remove(tag);
+            } else {
+                byTag.put(tag, left);
+            }
+        }
+
+        void addId(int id) {
+            if (!batch) {
+                allIds = allIds.with(id);
+                return;
+            }
+            ownAllIds();
+            allIds.add(id);
+        }
+
+        void removeId(int id) {
+            if (!batch) {
+                allIds = allIds.without(id);
+                return;
+            }
+            ownAllIds();
+            allIds.remove(id);
+        }
+
+        private void ownAllIds() {
+            if (!ownsAllIds) {
+                allIds = allIds.copy();
+                ownsAllIds = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.arssh.notesmanager.structures;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+    Boolean tag expression evaluated against a TagIndex with bitmap operations.
+
+        TagQuery.tag("work").and(TagQuery.tag("urgent")).and(TagQuery.not(TagQuery.tag("done")))
+        TagQuery.anyOf("home", "errands")
+*/
+public abstract class TagQuery {
+
+    // The result may share storage with the index, treat it as read-only
+    public abstract RoaringBitmap evaluate(TagIndex index);
+
+    // Rough size of the result, used to intersect the smallest sets first
+    abstract int estimate(TagIndex index);
+
+    public static TagQuery tag(String tag) {
+        return new Tag(tag);
+    }
+
+    public static TagQuery allOf(String... tags) {
+        return and(Arrays.stream(tags).map(TagQuery::tag).toArray(TagQuery[]::new));
+    }
+
+    public static TagQuery anyOf(String... tags) {
+        return or(Arrays.stream(tags).map(TagQuery::tag).toArray(TagQuery[]::new));
+    }
+
+    public static TagQuery and(TagQuery... queries) {
+        return new And(Arrays.asList(queries));
+    }
+
+    public static TagQuery or(TagQuery... queries) {
+        return new Or(Arrays.asList(queries));
+    }
+
+    public static TagQuery not(TagQuery query) {
+        return new Not(query);
+    }
+
+    public TagQuery and(TagQuery other) {
+        return and(this, other);
+    }
+
+    public TagQuery or(TagQuery other) {
+        return or(this, other);
+    }
+
+    public TagQuery andNot(TagQuery other) {
+        return and(this, not(other));
+    }
+
+    private static final class Tag extends TagQuery {
+        private final String tag;
+
+        Tag(String tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public RoaringBitmap evaluate(TagIndex index) {
+            return index.idsWithTag(tag);
+        }
+
+        @Override
+        int estimate(TagIndex index) {
+            return index.countWithTag(tag);
+        }
+    }
+
+    private static final class And extends TagQuery {
+        private final List<TagQuery> queries;
+
+        And(List<TagQuery> queries) {
+            this.queries = queries;
+        }
+
+        @Override
+        public RoaringBitmap evaluate(TagIndex index) {
+            if (queries.isEmpty()) {
+                return index.allIds().copy();
+            }
+
+            // Start from the smallest positive term; NOT terms are applied as differences
+            TagQuery[] ordered = queries.toArray(new TagQuery[0]);
+            Arrays.sort(ordered, Comparator.comparingInt((TagQuery q) -> q instanceof Not ? 1 : 0)
+                    .thenComparingInt(q -> q.estimate(index)));
+
+            RoaringBitmap result = null;
+            for (TagQuery query : ordered) {
+                if (query instanceof Not) {
+                    RoaringBitmap excluded = ((Not) query).query.evaluate(index);
+                    result = (result == null ? index.allIds() : result).andNot(excluded);
+                } else {
+                    RoaringBitmap ids = query.evaluate(index);
+                    result = result == null ? ids : result.and(ids);
+                }
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        int estimate(TagIndex index) {
+            int min = Integer.MAX_VALUE;
+            for (TagQuery query : queries) {
+                min = Math.min(min, query.estimate(index));
+            }
+            return min;
+        }
+    }
+
+    private static final class Or extends TagQuery {
+        private final List<TagQuery> queries;
+
+        Or(List<TagQuery> queries) {
+            this.queries = queries;
+        }
+
+        @Override
+        public RoaringBitmap evaluate(TagIndex index) {
+            RoaringBitmap result = new RoaringBitmap();
+            for (TagQuery query : queries) {
+                result = result.or(query.evaluate(index));
+            }
+            return result;
+        }
+
+        @Override
+        int estimate(TagIndex index) {
+            long sum = 0;
+            for (TagQuery query : queries) {
+                sum += query.estimate(index);
+            }
+            return (int) Math.min(sum, Integer.MAX_VALUE);
+        }
+    }
+
+    private static final class Not extends TagQuery {
+        private final TagQuery query;
+
+        Not(TagQuery query) {
+            this.query = query;
+        }
+
+        @Override
+        public RoaringBitmap evaluate(TagIndex index) {
+            return index.allIds().andNot(query.evaluate(index));
+        }
+
+        @Override
+        int estimate(TagIndex index) {
+            return index.allIds().cardinality() - query.estimate(index);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.arssh.notesmanager.structures;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Off-heap store for note text, so large bodies are not objects the garbage collector has to
+    trace and copy.
+
+    Texts are kept UTF-8 encoded in direct ByteBuffer chunks, one after another:
+        slot | length | bytes
+    Callers hold an int reference to a slot. The slot table maps it to (chunk, offset), so an
+    entry can be moved without the holder noticing. 0 stands for null.
+
+    Freed entries leave holes. Once a full chunk is at least half holes, its live entries are
+    copied into the chunk being filled and the chunk is reused, so free space is reclaimed as
+    notes are deleted or edited.
+*/
+public class TextArena {
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    // slot(4) length(4)
+    private static final int ENTRY_HEADER = 8;
+    private static final long NO_LOCATION = -1;
+
+    private final int chunkSize;
+    private final List<Chunk> chunks = new ArrayList<>();
+    // Emptied chunk kept for reuse instead of allocating a new one
+    private Chunk spare;
+    private Chunk active;
+
+    // Slot -> (chunk index << 32 | offset); slot 0 is never used
+    private long[] locations = new long[1024];
+    private int slotCount = 1;
+    private int[] freeSlots = new int[64];
+    private int freeSlotCount;
+
+    private long liveBytes;
+    private long compactions;
+
+    public TextArena() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public TextArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    // Reference to a copy of `text`; 0 for null
+    public synchronized int put(String text) {
+        if (text == null) {
+            return 0;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int slot = newSlot();
+        write(slot, bytes, 0, bytes.length);
+        return slot;
+    }
+
+    public synchronized String get(int ref) {
+        if (ref == 0) {
+            return null;
+        }
+        ByteBuffer buffer = bufferOf(ref);
+        int offset = offsetOf(ref);
+        byte[] bytes = new byte[buffer.getInt(offset + 4)];
+        buffer.get(offset + ENTRY_HEADER, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Encoded size of a text in bytes
+    public synchronized int byteSize(int ref) {
+        return ref == 0 ? 0 : bufferOf(ref).getInt(offsetOf(ref) + 4);
+    }
+
+    public synchronized void free(int ref) {
+        if (ref == 0) {
+            return;
+        }
+        long location = locations[ref];
+        if (location == NO_LOCATION) {
+            throw new IllegalArgumentException("Text " + ref + " was already freed");
+        }
+        Chunk chunk = chunks.get((int) (location >>> 32));
+        int size = ENTRY_HEADER + chunk.buffer.getInt((int) location + 4);
+        chunk.liveBytes -= size;
+        liveBytes -= size;
+        locations[ref] = NO_LOCATION;
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+        }
+        freeSlots[freeSlotCount++] = ref;
+
+        if (chunk != active && chunk.liveBytes * 2 <= chunk.writePos) {
+            compact(chunk);
+        }
+    }
+
+    // Bytes held by live texts, including entry headers
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    // Off-heap memory allocated, live or not
+    public synchronized long getReservedBytes() {
+        long reserved = spare != null ? spare.buffer.capacity() : 0;
+        for (Chunk chunk : chunks) {
+            if (chunk != null) {
+                reserved += chunk.buffer.capacity();
+            }
+        }
+        return reserved;
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    private int newSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (slotCount == locations.length) {
+            locations = Arrays.copyOf(locations, slotCount * 2);
+        }
+        return slotCount++;
+    }
+
+    private void write(int slot, byte[] bytes, int from, int length) {
+        int size = ENTRY_HEADER + length;
+        Chunk chunk = chunkWithRoom(size);
+        int offset = chunk.writePos;
+        chunk.buffer.putInt(offset, slot);
+        chunk.buffer.putInt(offset + 4, length);
+        chunk.buffer.put(offset + ENTRY_HEADER, bytes, from, length);
+        chunk.writePos += size;
+        chunk.liveBytes += size;
+        liveBytes += size;
+        locations[slot] = ((long) chunk.index << 32) | offset;
+    }
+
+    private Chunk chunkWithRoom(int size) {
+        if (active != null && active.writePos + size <= active.buffer.capacity()) {
+            return active;
+        }
+        if (size > chunkSize) {
+            // Texts bigger than a chunk get a chunk of their own, sealed right away
+            Chunk own = addChunk(ByteBuffer.allocateDirect(size));
+            return own;
+        }
+
+        ByteBuffer buffer;
+        if (spare != null) {
+            buffer = spare.buffer;
+            spare = null;
+        } else {
+            buffer = ByteBuffer.allocateDirect(chunkSize);
+        }
+        active = addChunk(buffer);
+        return active;
+    }
+
+    private Chunk addChunk(ByteBuffer buffer) {
+        int index = chunks.indexOf(null);
+        if (index < 0) {
+            index = chunks.size();
+            chunks.add(null);
+        }
+        Chunk chunk = new Chunk(index, buffer);
+        chunks.set(index, chunk);
+        return chunk;
+    }
+
+    // Move the live entries of a mostly empty chunk to the active one and recycle it
+    private void compact(Chunk chunk) {
+        int offset = 0;
+        while (offset < chunk.writePos) {
+            int slot = chunk.buffer.getInt(offset);
+            int length = chunk.buffer.getInt(offset + 4);
+            long here = ((long) chunk.index << 32) | offset;
+            if (locations[slot] == here) {
+                byte[] bytes = new byte[length];
+                chunk.buffer.get(offset + ENTRY_HEADER, bytes);
+                chunk.liveBytes -= ENTRY_HEADER + length;
+                liveBytes -= ENTRY_HEADER + length;
+                write(slot, bytes, 0, length);
+            }
+            offset += ENTRY_HEADER + length;
+        }
+
+        chunks.set(chunk.index, null);
+        if (spare == null && chunk.buffer.capacity() == chunkSize) {
+            chunk.buffer.clear();
+            spare = new Chunk(-1, chunk.buffer);
+        }
+        compactions++;
+    }
+
+    private ByteBuffer bufferOf(int ref) {
+        long location = locations[ref];
+        if (location == NO_LOCATION) {
+            throw new IllegalArgumentException("Text " + ref + " was freed");
+        }
+        return chunks.get((int) (location >>> 32)).buffer;
+    }
+
+    private int offsetOf(int ref) {
+        return (int) locations[ref];
+    }
+
+    private static final class Chunk {
+        final int index;
+        final ByteBuffer buffer;
+        int writePos;
+        long liveBytes;
+
+        Chunk(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.arssh.notesmanager.structures;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+    One slot of a TimingWheel: a circular doubly linked list of entries that share an expiration
+    tick. Buckets (not entries) go into the DelayQueue, so the queue holds at most one element per
+    slot no matter how many reminders are scheduled.
+*/
+public class TimerBucket implements Delayed {
+    private final TimerEntry root;
+    private final AtomicLong expiration;
+    private int count;
+
+    public TimerBucket() {
+        this.root = new TimerEntry(null, -1);
+        root.prev = root;
+        root.next = root;
+        this.expiration = new AtomicLong(-1);
+    }
+
+    public void add(TimerEntry entry) {
+        if (entry.bucket != null) {
+            entry.bucket.remove(entry);
+        }
+        TimerEntry tail = root.prev;
+        entry.next = root;
+        entry.prev = tail;
+        tail.next = entry;
+        root.prev = entry;
+        entry.bucket = this;
+        count++;
+    }
+
+    public boolean remove(TimerEntry entry) {
+        if (entry.bucket != this) {
+            return false;
+        }
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        entry.bucket = null;
+        count--;
+        return true;
+    }
+
+    // Empty the bucket, handing every entry to action (which re-inserts or fires it)
+    public void flush(Consumer<TimerEntry> action) {
+        TimerEntry curr = root.next;
+        while (curr != root) {
+            TimerEntry next = curr.next;
+            remove(curr);
+            action.accept(curr);
+            curr = next;
+        }
+        expiration.set(-1);
+    }
+
+    // Returns true if the expiration changed, meaning the bucket has to be (re)queued
+    public boolean setExpiration(long expirationMs) {
+        return expiration.getAndSet(expirationMs) != expirationMs;
+    }
+
+    public long getExpiration() {
+        return expiration.get();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        long delayMs = Math.max(getExpiration() - System.currentTimeMillis(), 0);
+        return unit.convert(delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        return Long.compare(getExpiration(), ((TimerBucket) other).getExpiration());
+    }
+}
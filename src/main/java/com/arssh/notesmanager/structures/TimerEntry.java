@@ -0,0 +1,28 @@
+package com.arssh.notesmanager.structures;
+
+import com.arssh.notesmanager.Note;
+
+// A note scheduled to fire at expirationMs, linked into one TimerBucket at a time
+public class TimerEntry {
+    public final Note note;
+    public final long expirationMs;
+
+    TimerBucket bucket;
+    TimerEntry prev;
+    TimerEntry next;
+
+    public TimerEntry(Note note, long expirationMs) {
+        this.note = note;
+        this.expirationMs = expirationMs;
+    }
+
+    // Unlink from the wheel in O(1). Returns false if the entry already fired or was cancelled.
+    public boolean cancel() {
+        TimerBucket current = bucket;
+        return current != null && current.remove(this);
+    }
+
+    public boolean isScheduled() {
+        return bucket != null;
+    }
+}
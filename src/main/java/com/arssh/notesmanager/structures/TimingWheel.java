@@ -0,0 +1,77 @@
+package com.arssh.notesmanager.structures;
+
+import java.util.concurrent.DelayQueue;
+
+/*
+    Hierarchical timing wheel.
+
+    Each wheel has wheelSize buckets of tickMs each. An entry further out than the wheel's span
+    goes to an overflow wheel whose tick is this wheel's whole span, created on demand. When a
+    bucket of a coarse wheel expires, its entries are re-added and fall into finer wheels, until
+    they land within one tick of now and are reported as due.
+
+    Adding and cancelling are O(1). Expired buckets come out of the shared DelayQueue, so the thread
+    driving the wheel just blocks on it until the next bucket is due; nothing polls per tick.
+
+    Not thread-safe: callers serialize access to the wheel.
+*/
+public class TimingWheel {
+    private final long tickMs;
+    private final int wheelSize;
+    private final long interval;
+    private final TimerBucket[] buckets;
+    private final DelayQueue<TimerBucket> queue;
+    private long currentTime;
+    private TimingWheel overflowWheel;
+
+    public TimingWheel(long tickMs, int wheelSize, long startMs, DelayQueue<TimerBucket> queue) {
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.interval = tickMs * wheelSize;
+        this.queue = queue;
+        this.buckets = new TimerBucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new TimerBucket();
+        }
+        // Round down to a tick boundary
+        this.currentTime = startMs - (startMs % tickMs);
+    }
+
+    // Returns false if the entry is already due (within one tick of the wheel's clock)
+    public boolean add(TimerEntry entry) {
+        long expiration = entry.expirationMs;
+
+        if (expiration < currentTime + tickMs) {
+            return false;
+        } else if (expiration < currentTime + interval) {
+            long virtualId = expiration / tickMs;
+            TimerBucket bucket = buckets[(int) (virtualId % wheelSize)];
+            bucket.add(entry);
+
+            // Only the first entry of a new round needs to (re)queue the bucket
+            if (bucket.setExpiration(virtualId * tickMs)) {
+                queue.offer(bucket);
+            }
+            return true;
+        } else {
+            if (overflowWheel == null) {
+                overflowWheel = new TimingWheel(interval, wheelSize, currentTime, queue);
+            }
+            return overflowWheel.add(entry);
+        }
+    }
+
+    // Move the clock forward to timeMs, called with the expiration of a bucket taken off the queue
+    public void advanceClock(long timeMs) {
+        if (timeMs >= currentTime + tickMs) {
+            currentTime = timeMs - (timeMs % tickMs);
+            if (overflowWheel != null) {
+                overflowWheel.advanceClock(currentTime);
+            }
+        }
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+}
@@ -0,0 +1,211 @@
+package com.arssh.notesmanager.services;
+
+import com.arssh.notesmanager.Note;
+import com.arssh.notesmanager.Reminder;
+import com.arssh.notesmanager.structures.NoteSnapshot;
+import com.arssh.notesmanager.structures.TagQuery;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+    Stress test for NotesManager's concurrency model: writers add, edit and delete notes while
+    readers search, fuzzy-search, query tags and walk snapshots.
+
+    A fixed set of "stable" notes is never touched by the writers, so every query that can only
+    match them must return exactly them, however the other notes change meanwhile. Stable and
+    churned notes share a tag, so some of those queries read what the writers are changing. A torn index,
+    a shared scratch buffer or a snapshot seen half-changed shows up as a wrong result set. Edits
+    must leave the notes of older snapshots as they were.
+*/
+public class NotesManagerConcurrencyTest {
+    private static final int STABLE_NOTES = 300;
+    private static final int READERS = 4;
+    private static final long RUN_MS = Long.getLong("notesmanager.stressMs", 3000);
+
+    private static NotesManager manager;
+    private static final Set<Integer> stableIds = new HashSet<>();
+
+    @BeforeAll
+    static void start() throws Exception {
+        // NotesManager keeps its files under user.home; give it an empty one
+        System.setProperty("user.home", Files.createTempDirectory("notes-stress").toString());
+        manager = NotesManager.getInstance();
+        manager.initialize();
+
+        for (int i = 0; i < STABLE_NOTES; i++) {
+            Note note = new Note("Stable zebrafish " + i, "stableword body " + i);
+            note.addTag("stable");
+            note.addTag("common");
+            manager.addNote(note);
+            stableIds.add(note.getId());
+        }
+    }
+
+    @AfterAll
+    static void stop() {
+        manager.shutdown();
+    }
+
+    @Test
+    void readersSeeConsistentResultsWhileWritersChangeNotes() throws Exception {
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MS);
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(thread("adder", failures, () -> {
+            Queue<Integer> added = new ArrayDeque<>();
+            int i = 0;
+            while (System.nanoTime() < deadline) {
+                Note note = new Note("churn alpha " + i, "churnword text " + i++);
+                note.addTag("churn");
+                note.addTag("common");
+                manager.addNote(note);
+                added.add(note.getId());
+                if (added.size() > 200) {
+                    manager.deleteNote(added.remove());
+                }
+                writes.incrementAndGet();
+            }
+        }));
+        threads.add(thread("editor", failures, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                NoteSnapshot snapshot = manager.getSnapshot();
+                Note note = snapshot.get(random.nextInt(snapshot.size()));
+                if (stableIds.contains(note.getId())) {
+                    continue;
+                }
+                int n = random.nextInt(1000);
+                Note edited = new Note("churn beta " + n, "churnword edited " + n);
+                edited.addTag("churn");
+                edited.addTag("common");
+                if (random.nextBoolean()) {
+                    edited.setReminder(new Reminder(LocalDateTime.now().plusDays(1 + random.nextInt(30)), 3));
+                }
+                String title = note.getTitle();
+                String text = note.getMainText();
+                manager.updateNote(note.getId(), edited);
+                // The update stores a new version; the snapshot still has the note as it was
+                Note before = snapshot.findById(note.getId());
+                if (before != note || !title.equals(note.getTitle()) || !text.equals(note.getMainText())) {
+                    failures.add("update changed note " + note.getId() + " in an older snapshot");
+                }
+                writes.incrementAndGet();
+            }
+        }));
+        for (int r = 0; r < READERS; r++) {
+            threads.add(thread("reader-" + r, failures, () -> {
+                while (System.nanoTime() < deadline) {
+                    checkSnapshot(manager.getSnapshot(), failures);
+                    expectStable("search", manager.search("stableword", 10_000), failures);
+                    expectStable("fuzzySearch", manager.fuzzySearch("zebrafsh", 10_000), failures);
+                    expectStable("findNotesByTag", manager.findNotesByTag("stable"), failures);
+                    // Walks the bitmaps the writers keep changing
+                    expectStable("findNotesByTags", manager.findNotesByTags(
+                            TagQuery.tag("common").and(TagQuery.not(TagQuery.tag("churn")))), failures);
+                    expectStable("completeTitle", manager.completeTitle("stable zebrafish", 10_000), failures);
+                    for (Note note : manager.getUpcomingReminders(50)) {
+                        if (note.getReminder() == null || !note.getReminder().isActive()) {
+                            failures.add("upcoming reminder without an active reminder: " + note.getId());
+                        }
+                        checkNote(note, failures);
+                    }
+                    reads.incrementAndGet();
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.isEmpty(), failures.size() + " failures, first: " + failures.peek());
+        assertTrue(reads.get() > 0 && writes.get() > 0, "nothing ran");
+
+        // Once quiet, the indexes agree with the list
+        NoteSnapshot snapshot = manager.getSnapshot();
+        int churn = snapshot.size() - STABLE_NOTES;
+        assertEquals(churn, manager.search("churnword", 100_000).size());
+        assertEquals(churn, manager.findNotesByTag("churn").size());
+        assertEquals(snapshot.size(), manager.getAllNotes().size());
+    }
+
+    private static Thread thread(String name, Queue<String> failures, Runnable body) {
+        return new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable e) {
+                failures.add(name + ": " + e);
+            }
+        }, name);
+    }
+
+    // A snapshot's order and id views hold the same notes, each once
+    private static void checkSnapshot(NoteSnapshot snapshot, Queue<String> failures) {
+        Set<Integer> seen = new HashSet<>();
+        int count = 0;
+        for (Note note : snapshot.asList()) {
+            count++;
+            if (!seen.add(note.getId())) {
+                failures.add("snapshot lists note " + note.getId() + " twice");
+            }
+            if (snapshot.findById(note.getId()) != note) {
+                failures.add("snapshot id lookup disagrees for note " + note.getId());
+            }
+            checkNote(note, failures);
+        }
+        if (count != snapshot.size()) {
+            failures.add("snapshot walked " + count + " notes, size says " + snapshot.size());
+        }
+        if (!seen.containsAll(stableIds)) {
+            failures.add("snapshot is missing stable notes");
+        }
+    }
+
+    // Title and text were written together; a note seen with one from another edit is torn
+    private static void checkNote(Note note, Queue<String> failures) {
+        String title = note.getTitle();
+        String text = note.getMainText();
+        boolean matches;
+        if (title.startsWith("churn alpha ")) {
+            matches = text.equals("churnword text " + title.substring("churn alpha ".length()));
+        } else if (title.startsWith("churn beta ")) {
+            matches = text.equals("churnword edited " + title.substring("churn beta ".length()));
+        } else {
+            matches = text.equals("stableword body " + title.substring("Stable zebrafish ".length()));
+        }
+        if (!matches) {
+            failures.add("note " + note.getId() + " has title \"" + title + "\" with text \"" + text + "\"");
+        }
+    }
+
+    private static void expectStable(String query, List<Note> found, Queue<String> failures) {
+        Set<Integer> ids = new HashSet<>();
+        for (Note note : found) {
+            ids.add(note.getId());
+        }
+        if (!ids.equals(stableIds)) {
+            failures.add(query + " returned " + ids.size() + " notes, expected the " + STABLE_NOTES + " stable ones");
+        }
+    }
+}